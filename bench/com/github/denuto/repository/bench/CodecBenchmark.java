@@ -0,0 +1,70 @@
+package com.github.denuto.repository.bench;
+
+import com.github.denuto.repository.json.PackageRevisionEncoder;
+import com.github.denuto.repository.json.PluginRequestDecoder;
+import com.github.denuto.repository.models.ImageRecord;
+import com.github.denuto.repository.models.LatestPackageRevisionSinceMessage;
+import com.github.denuto.repository.models.ValidatePackageConfigurationMessage;
+import com.github.denuto.repository.models.ValidateRepositoryConfigurationMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding the request bodies of the Go server and encoding package revisions, without the encoder's memoization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private static final List<String> PUBLISHED_TAGS = Arrays.asList("team", "environment");
+
+    private final PackageRevisionEncoder revisionEncoder = new PackageRevisionEncoder("http://go-server:8153");
+    private String repositoryConfigurationBody;
+    private String packageConfigurationBody;
+    private String latestRevisionSinceBody;
+    private ImageRecord imageRecord;
+
+    @Setup
+    public void setUp() {
+        repositoryConfigurationBody = PluginRequests.repositoryConfigurationBody();
+        packageConfigurationBody = PluginRequests.packageConfigurationBody();
+        latestRevisionSinceBody = PluginRequests.latestRevisionSinceBody("ami-00000000", "2015-06-01T00:00:00.000Z");
+        imageRecord = ImageRecord.of(SyntheticImages.generate(1, 42).get(0));
+    }
+
+    @Benchmark
+    public ValidateRepositoryConfigurationMessage decodeRepositoryConfiguration() {
+        return PluginRequestDecoder.decodeValidateRepositoryConfiguration(repositoryConfigurationBody);
+    }
+
+    @Benchmark
+    public ValidatePackageConfigurationMessage decodePackageConfiguration() {
+        return PluginRequestDecoder.decodeValidatePackageConfiguration(packageConfigurationBody);
+    }
+
+    @Benchmark
+    public LatestPackageRevisionSinceMessage decodeLatestRevisionSince() {
+        return PluginRequestDecoder.decodeLatestPackageRevisionSince(latestRevisionSinceBody);
+    }
+
+    @Benchmark
+    public String encodeRevision() {
+        return revisionEncoder.encode(revisionEncoder.toPackageRevision(imageRecord, "us-east-1", PUBLISHED_TAGS));
+    }
+}
@@ -0,0 +1,319 @@
+package com.github.denuto.repository.bench;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.services.LocalImageFilter;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embeddable stand-in for the EC2 Query API endpoint, serving DescribeImages (and its dry runs) out of an image
+ * catalogue, such as one made by {@link SyntheticImages}.
+ * <p>
+ * Owners, the filters the plugin uses (with EC2's wildcards), MaxResults and NextToken are honoured; executable-by
+ * users are ignored. Every call can be slowed down by a fixed latency, calls beyond a rate are throttled with
+ * RequestLimitExceeded like EC2 does, and a fraction of calls can be failed with InternalError. Requests are not
+ * authenticated.
+ */
+public class FakeEc2Server {
+
+    private static final String NAMESPACE = "http://ec2.amazonaws.com/doc/2016-11-15/";
+    private static final int DEFAULT_MAX_RESULTS = 1000;
+
+    private final List<Image> images;
+    private final String selfOwnerId;
+    private final long latencyMillis;
+    private final RateLimiter rateLimiter;
+    private final double errorRate;
+    private final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+    private final AtomicLong describeImagesCalls = new AtomicLong();
+    private final AtomicLong dryRuns = new AtomicLong();
+    private final AtomicLong throttledCalls = new AtomicLong();
+    private final AtomicLong failedCalls = new AtomicLong();
+    private final AtomicLong imagesServed = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param selfOwnerId   the account the alias {@code self} stands for
+     * @param maxCallsPerSecond calls beyond this rate are throttled; 0 for no limit
+     * @param errorRate     the fraction of calls, between 0 and 1, failed with an InternalError
+     */
+    public FakeEc2Server(List<Image> images, String selfOwnerId, long latencyMillis, double maxCallsPerSecond, double errorRate) {
+        this.images = images;
+        this.selfOwnerId = selfOwnerId;
+        this.latencyMillis = latencyMillis;
+        this.rateLimiter = maxCallsPerSecond > 0 ? RateLimiter.create(maxCallsPerSecond) : null;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Starts serving on an ephemeral port of the loopback interface.
+     */
+    public synchronized void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("fake-ec2-%d")
+                .setDaemon(true)
+                .build());
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    FakeEc2Server.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /**
+     * The url to point the plugin's {@code ami.poller.ec2.endpoint} at.
+     */
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long describeImagesCalls() {
+        return describeImagesCalls.get();
+    }
+
+    public long dryRuns() {
+        return dryRuns.get();
+    }
+
+    public long throttledCalls() {
+        return throttledCalls.get();
+    }
+
+    public long failedCalls() {
+        return failedCalls.get();
+    }
+
+    public long imagesServed() {
+        return imagesServed.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+        parseParameters(new String(ByteStreams.toByteArray(exchange.getRequestBody()), Charsets.UTF_8), parameters);
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (!"DescribeImages".equals(parameters.get("Action"))) {
+            sendError(exchange, 400, "InvalidAction", "The action " + parameters.get("Action") + " is not valid for this web service.");
+            return;
+        }
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            throttledCalls.incrementAndGet();
+            sendError(exchange, 503, "RequestLimitExceeded", "Request limit exceeded.");
+            return;
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            failedCalls.incrementAndGet();
+            sendError(exchange, 500, "InternalError", "An internal error has occurred.");
+            return;
+        }
+        if ("true".equals(parameters.get("DryRun"))) {
+            dryRuns.incrementAndGet();
+            sendError(exchange, 412, "DryRunOperation", "Request would have succeeded, but DryRun flag is set.");
+            return;
+        }
+        describeImagesCalls.incrementAndGet();
+
+        ImageQuery imageQuery;
+        try {
+            imageQuery = toImageQuery(parameters);
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, "InvalidParameterValue", e.getMessage());
+            return;
+        }
+        LocalImageFilter filter = LocalImageFilter.compile(imageQuery);
+        int maxResults = parameters.containsKey("MaxResults") ? Integer.parseInt(parameters.get("MaxResults")) : DEFAULT_MAX_RESULTS;
+        int offset = parameters.containsKey("NextToken") ? Integer.parseInt(parameters.get("NextToken")) : 0;
+
+        List<Image> page = new ArrayList<>();
+        int next = offset;
+        for (; next < images.size() && page.size() < maxResults; next++) {
+            Image image = images.get(next);
+            if (isOwnedBy(image, imageQuery) && filter.matches(image)) {
+                page.add(image);
+            }
+        }
+        imagesServed.addAndGet(page.size());
+        send(exchange, 200, describeImagesResponse(page, next < images.size() ? String.valueOf(next) : null));
+    }
+
+    private ImageQuery toImageQuery(Map<String, String> parameters) {
+        ImageQuery imageQuery = new ImageQuery("us-east-1").withOwners(list(parameters, "Owner.%d"));
+        for (int i = 1; parameters.containsKey("Filter." + i + ".Name"); i++) {
+            List<String> values = list(parameters, "Filter." + i + ".Value.%d");
+            imageQuery = imageQuery.withFilter(parameters.get("Filter." + i + ".Name"), values.toArray(new String[values.size()]));
+        }
+        if (!LocalImageFilter.supports(imageQuery)) {
+            throw new IllegalArgumentException("Unsupported filter in " + imageQuery.getFilters().keySet());
+        }
+        return imageQuery;
+    }
+
+    private boolean isOwnedBy(Image image, ImageQuery imageQuery) {
+        if (imageQuery.getOwners().isEmpty()) {
+            return true;
+        }
+        for (String owner : imageQuery.getOwners()) {
+            if (owner.equals(image.getOwnerId()) || (owner.equals("self") && selfOwnerId.equals(image.getOwnerId()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> list(Map<String, String> parameters, String format) {
+        List<String> values = new ArrayList<>();
+        for (int i = 1; parameters.containsKey(String.format(format, i)); i++) {
+            values.add(parameters.get(String.format(format, i)));
+        }
+        return values;
+    }
+
+    private static void parseParameters(String encoded, Map<String, String> parameters) throws IOException {
+        if (encoded == null || encoded.isEmpty()) {
+            return;
+        }
+        for (String parameter : encoded.split("&")) {
+            int separator = parameter.indexOf('=');
+            String name = separator < 0 ? parameter : parameter.substring(0, separator);
+            String value = separator < 0 ? "" : parameter.substring(separator + 1);
+            parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+    }
+
+    private byte[] describeImagesResponse(List<Image> page, String nextToken) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("DescribeImagesResponse");
+            writer.writeDefaultNamespace(NAMESPACE);
+            element(writer, "requestId", UUID.randomUUID().toString());
+            writer.writeStartElement("imagesSet");
+            for (Image image : page) {
+                writer.writeStartElement("item");
+                element(writer, "imageId", image.getImageId());
+                element(writer, "imageLocation", image.getOwnerId() + "/" + image.getName());
+                element(writer, "imageState", image.getState());
+                element(writer, "imageOwnerId", image.getOwnerId());
+                element(writer, "creationDate", image.getCreationDate());
+                element(writer, "isPublic", "false");
+                element(writer, "architecture", image.getArchitecture());
+                element(writer, "imageType", "machine");
+                element(writer, "name", image.getName());
+                element(writer, "description", image.getDescription());
+                element(writer, "rootDeviceType", image.getRootDeviceType());
+                element(writer, "virtualizationType", image.getVirtualizationType());
+                element(writer, "hypervisor", "xen");
+                writer.writeStartElement("tagSet");
+                for (Tag tag : image.getTags()) {
+                    writer.writeStartElement("item");
+                    element(writer, "key", tag.getKey());
+                    element(writer, "value", tag.getValue());
+                    writer.writeEndElement();
+                }
+                writer.writeEndElement();
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            if (nextToken != null) {
+                element(writer, "nextToken", nextToken);
+            }
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static void element(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        if (value != null) {
+            writer.writeStartElement(name);
+            writer.writeCharacters(value);
+            writer.writeEndElement();
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement("Response");
+            writer.writeStartElement("Errors");
+            writer.writeStartElement("Error");
+            element(writer, "Code", code);
+            element(writer, "Message", message);
+            writer.writeEndElement();
+            writer.writeEndElement();
+            element(writer, "RequestID", UUID.randomUUID().toString());
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        send(exchange, status, out.toByteArray());
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/xml;charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+}
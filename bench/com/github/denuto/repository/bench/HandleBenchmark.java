@@ -0,0 +1,111 @@
+package com.github.denuto.repository.bench;
+
+import com.github.denuto.repository.AmiMaterial;
+import com.github.denuto.repository.services.ImageCache;
+import com.github.denuto.repository.services.ImageRefreshScheduler;
+import com.github.denuto.repository.services.ImageService;
+import com.github.denuto.repository.services.ImageSnapshotStore;
+import com.google.common.base.Ticker;
+import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AmiMaterial#handle} for every request type but check-repository-connection (a single EC2 dry run), against a
+ * synthetic catalogue of {@code images} images. With a {@code cacheTtlSeconds} of 0 every poll fetches and selects
+ * the whole catalogue; otherwise polls are answered from the image cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandleBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int images;
+
+    @Param({"0", "30"})
+    public long cacheTtlSeconds;
+
+    private AmiMaterial amiMaterial;
+    private GoPluginApiRequest repositoryConfiguration;
+    private GoPluginApiRequest packageConfiguration;
+    private GoPluginApiRequest validateRepositoryConfiguration;
+    private GoPluginApiRequest validatePackageConfiguration;
+    private GoPluginApiRequest checkPackageConnection;
+    private GoPluginApiRequest latestRevision;
+    private GoPluginApiRequest latestRevisionSince;
+
+    @Setup
+    public void setUp() {
+        amiMaterial = new AmiMaterial(new ImageService(
+                new SyntheticImageSource(SyntheticImages.generate(images, 42), 1000),
+                100,
+                new ImageCache(cacheTtlSeconds, 200000),
+                new ImageCache(cacheTtlSeconds, 200000),
+                new ImageRefreshScheduler(0, 0, 1, Ticker.systemTicker()),
+                new ImageSnapshotStore(null, 0)));
+        repositoryConfiguration = PluginRequests.request("repository-configuration");
+        packageConfiguration = PluginRequests.request("package-configuration");
+        validateRepositoryConfiguration = PluginRequests.request("validate-repository-configuration", PluginRequests.repositoryConfigurationBody());
+        validatePackageConfiguration = PluginRequests.request("validate-package-configuration", PluginRequests.packageConfigurationBody());
+        checkPackageConnection = PluginRequests.request("check-package-connection", PluginRequests.packageConfigurationBody());
+        latestRevision = PluginRequests.request("latest-revision", PluginRequests.packageConfigurationBody());
+        latestRevisionSince = PluginRequests.request("latest-revision-since", PluginRequests.latestRevisionSinceBody("ami-00000000", "2015-06-01T00:00:00.000Z"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        amiMaterial.onUnload(null);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse repositoryConfiguration() throws Exception {
+        return amiMaterial.handle(repositoryConfiguration);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse packageConfiguration() throws Exception {
+        return amiMaterial.handle(packageConfiguration);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse validateRepositoryConfiguration() throws Exception {
+        return amiMaterial.handle(validateRepositoryConfiguration);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse validatePackageConfiguration() throws Exception {
+        return amiMaterial.handle(validatePackageConfiguration);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse checkPackageConnection() throws Exception {
+        return amiMaterial.handle(checkPackageConnection);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse latestRevision() throws Exception {
+        return amiMaterial.handle(latestRevision);
+    }
+
+    @Benchmark
+    public GoPluginApiResponse latestRevisionSince() throws Exception {
+        return amiMaterial.handle(latestRevisionSince);
+    }
+}
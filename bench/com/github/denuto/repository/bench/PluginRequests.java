@@ -0,0 +1,39 @@
+package com.github.denuto.repository.bench;
+
+import com.thoughtworks.go.plugin.api.request.DefaultGoPluginApiRequest;
+import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
+
+/**
+ * The requests a Go server sends the plugin for a package of the {@link SyntheticImages} catalogue.
+ */
+public final class PluginRequests {
+
+    public static final String REPOSITORY_CONFIGURATION = "{\"REGION\":{\"value\":\"us-east-1\"},\"OWNERS\":{\"value\":\"" + SyntheticImages.OWNER_ID + "\"}}";
+    public static final String PACKAGE_CONFIGURATION = "{\"AMI_SPEC\":{\"value\":\"web-*\"},\"ARCH\":{\"value\":\"x86_64\"},\"PUBLISHED_TAGS\":{\"value\":\"team,environment\"}}";
+
+    private PluginRequests() {
+    }
+
+    public static GoPluginApiRequest request(String requestName) {
+        return request(requestName, null);
+    }
+
+    public static GoPluginApiRequest request(String requestName, String requestBody) {
+        DefaultGoPluginApiRequest request = new DefaultGoPluginApiRequest("package-repository", "1.0", requestName);
+        request.setRequestBody(requestBody);
+        return request;
+    }
+
+    public static String repositoryConfigurationBody() {
+        return "{\"repository-configuration\":" + REPOSITORY_CONFIGURATION + "}";
+    }
+
+    public static String packageConfigurationBody() {
+        return "{\"repository-configuration\":" + REPOSITORY_CONFIGURATION + ",\"package-configuration\":" + PACKAGE_CONFIGURATION + "}";
+    }
+
+    public static String latestRevisionSinceBody(String previousRevision, String previousTimestamp) {
+        return "{\"repository-configuration\":" + REPOSITORY_CONFIGURATION + ",\"package-configuration\":" + PACKAGE_CONFIGURATION + ","
+                + "\"previous-revision\":{\"revision\":\"" + previousRevision + "\",\"timestamp\":\"" + previousTimestamp + "\",\"data\":{}}}";
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.denuto.repository.bench;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageCandidates;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageRecord;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.github.denuto.repository.services.LocalImageFilter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selecting revisions out of a fetched result set of {@code images} images: keeping the most recent ones while paging,
+ * picking the latest one or the first one after a previous revision, and filtering a catalogue locally.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectionBenchmark {
+
+    private static final long PREVIOUS_REVISION_MILLIS = new DateTime(2015, 6, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+    @Param({"10", "1000", "50000"})
+    public int images;
+
+    @Param({"100"})
+    public int retainedImages;
+
+    private List<Image> result;
+    private ImageTimeline retained;
+    private ImageTimeline catalogue;
+    private LocalImageFilter packageFilter;
+
+    @Setup
+    public void setUp() {
+        result = SyntheticImages.generate(images, 42);
+        retained = retainMostRecent();
+        catalogue = ImageTimeline.of(result);
+        packageFilter = LocalImageFilter.compile(new ImageQuery("us-east-1")
+                .withFilter("name", "web-*")
+                .withFilter("architecture", "x86_64")
+                .withFilter("tag:environment", "production"));
+    }
+
+    @Benchmark
+    public ImageTimeline retainMostRecent() {
+        ImageCandidates candidates = new ImageCandidates(retainedImages);
+        for (Image image : result) {
+            candidates.add(image);
+        }
+        return candidates.toTimeline();
+    }
+
+    @Benchmark
+    public ImageRecord latest() {
+        return retained.latest();
+    }
+
+    @Benchmark
+    public ImageRecord firstCreatedAfter() {
+        return catalogue.firstCreatedAfter(PREVIOUS_REVISION_MILLIS);
+    }
+
+    @Benchmark
+    public ImageTimeline filterCatalogue() {
+        return catalogue.filter(packageFilter);
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.denuto.repository.bench;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.services.ImageSource;
+import com.github.denuto.repository.services.ImageVisitor;
+
+import java.util.List;
+
+/**
+ * Stands in for EC2: every query matches the whole catalogue, handed out in pages like DescribeImages does.
+ */
+public class SyntheticImageSource implements ImageSource {
+
+    private final List<Image> images;
+    private final int pageSize;
+
+    public SyntheticImageSource(List<Image> images, int pageSize) {
+        this.images = images;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+        scan(imageQuery, pageSize, visitor);
+    }
+
+    @Override
+    public void scan(ImageQuery imageQuery, int firstPageSize, ImageVisitor visitor) {
+        int size = Math.min(firstPageSize, pageSize);
+        for (int page = 0; page < images.size(); page += size, size = (int) Math.min(pageSize, 2L * size)) {
+            for (Image image : images.subList(page, Math.min(images.size(), page + size))) {
+                if (!visitor.visit(image)) {
+                    return;
+                }
+            }
+        }
+    }
+}
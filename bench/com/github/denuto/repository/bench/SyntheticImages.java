@@ -0,0 +1,63 @@
+package com.github.denuto.repository.bench;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates image catalogues shaped like the ones Go pipelines bake: images of a handful of pipelines, created over a
+ * year, carrying the build tags the plugin reads plus a few it does not.
+ */
+public final class SyntheticImages {
+
+    public static final String OWNER_ID = "123456789012";
+    public static final String[] PIPELINES = {"base-image", "web", "api", "worker", "batch"};
+
+    private static final DateTimeFormatter CREATION_DATE_FORMAT = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
+    private static final long START_MILLIS = new DateTime(2015, 1, 1, 0, 0, DateTimeZone.UTC).getMillis();
+    private static final int YEAR_SECONDS = 365 * 24 * 60 * 60;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * {@code count} images, the same for the same seed.
+     */
+    public static List<Image> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<Image> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String pipeline = PIPELINES[random.nextInt(PIPELINES.length)];
+            String pipelineCounter = String.valueOf(1 + random.nextInt(5000));
+            long creationMillis = START_MILLIS + random.nextInt(YEAR_SECONDS) * 1000L;
+            images.add(new Image()
+                    .withImageId(String.format("ami-%08x", i))
+                    .withName(pipeline + "-" + pipelineCounter + "-" + i)
+                    .withOwnerId(OWNER_ID)
+                    .withDescription("Baked by " + pipeline + " #" + pipelineCounter)
+                    .withArchitecture(random.nextInt(10) == 0 ? "i386" : "x86_64")
+                    .withVirtualizationType("hvm")
+                    .withRootDeviceType("ebs")
+                    .withState("available")
+                    .withCreationDate(CREATION_DATE_FORMAT.print(creationMillis))
+                    .withTags(
+                            new Tag("Name", pipeline),
+                            new Tag("pipelineName", pipeline),
+                            new Tag("pipelineCounter", pipelineCounter),
+                            new Tag("stageName", "bake"),
+                            new Tag("stageCounter", "1"),
+                            new Tag("jobName", "packer"),
+                            new Tag("team", "team-" + random.nextInt(8)),
+                            new Tag("environment", random.nextBoolean() ? "staging" : "production"),
+                            new Tag("git-sha", Long.toHexString(random.nextLong()))));
+        }
+        return images;
+    }
+}
@@ -1,52 +1,85 @@
 package com.github.denuto.repository;
 
-import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.model.*;
 import com.fatboyindustrial.gsonjodatime.Converters;
+import com.github.denuto.repository.json.PackageRevisionEncoder;
+import com.github.denuto.repository.json.PluginRequestDecoder;
+import com.github.denuto.repository.metrics.JmxMetrics;
+import com.github.denuto.repository.metrics.LatencyHistogram;
+import com.github.denuto.repository.metrics.PluginMetrics;
 import com.github.denuto.repository.models.*;
+import com.github.denuto.repository.services.AdaptiveRateLimiter;
 import com.github.denuto.repository.services.AmazonEC2ClientFactory;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
+import com.github.denuto.repository.services.BoundedImageSource;
+import com.github.denuto.repository.services.ConnectionCheckCache;
+import com.github.denuto.repository.services.CredentialsProviders;
+import com.github.denuto.repository.services.ImageService;
+import com.github.denuto.repository.services.RegionCircuitBreaker;
+import com.github.denuto.repository.services.RegionFanOut;
+import com.github.denuto.repository.services.RevisionFallback;
+import com.google.common.base.Function;
+import com.google.common.base.Splitter;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.GoPlugin;
 import com.thoughtworks.go.plugin.api.GoPluginIdentifier;
 import com.thoughtworks.go.plugin.api.annotation.Extension;
+import com.thoughtworks.go.plugin.api.annotation.UnLoad;
 import com.thoughtworks.go.plugin.api.exceptions.UnhandledRequestTypeException;
+import com.thoughtworks.go.plugin.api.info.PluginContext;
 import com.thoughtworks.go.plugin.api.logging.Logger;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import org.joda.time.DateTime;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
 
-import static com.google.common.collect.Iterables.filter;
-import static com.google.common.collect.Lists.newArrayList;
 import static com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse.badRequest;
 import static com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse.success;
 import static java.lang.String.format;
-import static org.joda.time.DateTime.parse;
 
 @Extension
 public class AmiMaterial implements GoPlugin {
     public static final String VALIDATE_REPO_CONFIG_INVALID_REGION_MSG = "[{ \"key\": \"REGION\", \"message\" : \"Invalid AWS REGION found: %s\"}]";
     public static final String VALIDATE_REPO_CONFIG_MISSING_REGION_KEY_MSG = "[{ \"key\": \"REGION\", \"message\" : \"Region is required\"}]";
+    public static final String VALIDATE_REPO_CONFIG_INVALID_OWNER_MSG = "[{ \"key\": \"OWNERS\", \"message\" : \"Invalid owner found: %s (must be an AWS account id, self, amazon or aws-marketplace)\"}]";
+    public static final String VALIDATE_REPO_CONFIG_INVALID_EXECUTABLE_BY_MSG = "[{ \"key\": \"EXECUTABLE_BY\", \"message\" : \"Invalid executable by user found: %s (must be an AWS account id, self or all)\"}]";
+    public static final String VALIDATE_REPO_CONFIG_INVALID_CATALOGUE_OWNER_MSG = "[{ \"key\": \"CATALOGUE_OWNERS\", \"message\" : \"Invalid AWS account id found: %s\"}]";
+    public static final String VALIDATE_REPO_CONFIG_INVALID_ROLE_ARN_MSG = "[{ \"key\": \"ROLE_ARN\", \"message\" : \"Invalid IAM role ARN found: %s\"}]";
     public static final String VALIDATE_PACKAGE_CONFIG_INVALID_AMI_NAME_MSG = "[{ \"key\": \"AMI_SPEC\", \"message\" : \"AMI spec specified is invalid (must be between 3 and 128 characters long)\"}]";
     public static final String VALIDATE_PACKAGE_CONFIG_INVALID_ARCH_VALUE = "[{ \"key\": \"ARCH\", \"message\" : \"Architecture value incorrect. (i386 | x86_64)\"}]";
-    public static final Comparator<Image> IMAGE_DESC_DATE_ORDER_COMPARATOR = new Comparator<Image>() {
-        @Override
-        public int compare(Image o1, Image o2) {
-            return parse(o2.getCreationDate()).compareTo(parse(o1.getCreationDate()));
-        }
-    };
-    public static final Comparator<Image> IMAGE_ASC_DATE_ORDER_COMPARATOR = new Comparator<Image>() {
-        @Override
-        public int compare(Image o1, Image o2) {
-            return parse(o1.getCreationDate()).compareTo(parse(o2.getCreationDate()));
-        }
-    };
+    public static final String VALIDATE_PACKAGE_CONFIG_INVALID_TAG_VALUE = "[{ \"key\": \"TAG\", \"message\" : \"Tag must be given as key=value\"}]";
+    public static final String VALIDATE_PACKAGE_CONFIG_INVALID_VIRTUALIZATION_TYPE_VALUE = "[{ \"key\": \"VIRTUALIZATION_TYPE\", \"message\" : \"Virtualization type value incorrect. (hvm | paravirtual)\"}]";
+    public static final String VALIDATE_PACKAGE_CONFIG_INVALID_ROOT_DEVICE_TYPE_VALUE = "[{ \"key\": \"ROOT_DEVICE_TYPE\", \"message\" : \"Root device type value incorrect. (ebs | instance-store)\"}]";
     Logger logger = Logger.getLoggerFor(AmiMaterial.class);
     private Gson gson = Converters.registerDateTime(new GsonBuilder()).create();
+    private final ImageService imageService;
+    private PackageRevisionEncoder revisionEncoder = PackageRevisionEncoder.fromSystemProperties();
+    private RegionFanOut regionFanOut = RegionFanOut.fromSystemProperties();
+    private AdaptiveRateLimiter rateLimiter = AdaptiveRateLimiter.shared();
+    private RegionCircuitBreaker circuitBreaker = RegionCircuitBreaker.fromSystemProperties();
+    private ConnectionCheckCache connectionChecks = ConnectionCheckCache.fromSystemProperties();
+    private RevisionFallback revisionFallback = RevisionFallback.fromSystemProperties();
+    private PluginMetrics metrics = PluginMetrics.shared();
+    private JmxMetrics jmxMetrics = new JmxMetrics(metrics);
+    private final LongAdder unknownRequestErrors = metrics.counter("handle.unknown.errors");
+    private final Map<String, MessageHandler> messageHandlers = ImmutableMap.<String, MessageHandler>builder()
+            .put("repository-configuration", metered("repository-configuration", repositoryConfigurationsMessageHandler()))
+            .put("package-configuration", metered("package-configuration", packageConfiguration()))
+            .put("validate-repository-configuration", metered("validate-repository-configuration", validateRepositoryConfiguration()))
+            .put("validate-package-configuration", metered("validate-package-configuration", validatePackageConfiguration()))
+            .put("check-repository-connection", metered("check-repository-connection", checkRepositoryConnection()))
+            .put("check-package-connection", metered("check-package-connection", checkPackageConnection()))
+            .put("latest-revision", metered("latest-revision", latestRevision()))
+            .put("latest-revision-since", metered("latest-revision-since", latestRevisionSince()))
+            .build();
 
     public static final List<String> REGIONS = new ArrayList<String>() {{
         add("eu-west-1");
@@ -59,43 +92,83 @@ public class AmiMaterial implements GoPlugin {
         add("us-west-1");
         add("us-west-2");
     }};
-    public static final Tag EMPTY_TAG = new Tag("", "");
+    public static final List<String> DEFAULT_OWNERS = Collections.singletonList("self");
+
+    public AmiMaterial() {
+        this(ImageService.fromSystemProperties());
+    }
+
+    /**
+     * A plugin fetching its images through the given service instead of one configured from system properties.
+     */
+    public AmiMaterial(ImageService imageService) {
+        this.imageService = imageService;
+    }
 
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor goApplicationAccessor) {
+        imageService.startBackgroundRefresh();
+        checkConnectionsInBackground(new ArrayList<>(imageService.restoredRegions()));
+        metrics.gauge("handle.stale-answers", new Supplier<Long>() {
+            @Override
+            public Long get() {
+                return revisionFallback.staleAnswers();
+            }
+        });
+        jmxMetrics.register();
+    }
+
+    @UnLoad
+    public void onUnload(PluginContext pluginContext) {
+        jmxMetrics.unregister();
+        imageService.stopBackgroundRefresh();
+        revisionFallback.shutdown();
+        regionFanOut.shutdown();
+        BoundedImageSource.shutdown();
+        AmazonEC2ClientFactory.shutdown();
+        CredentialsProviders.shutdown();
     }
 
     @Override
     public GoPluginApiResponse handle(GoPluginApiRequest goPluginApiRequest) throws UnhandledRequestTypeException {
         String requestName = goPluginApiRequest.requestName();
-
-        switch (requestName) {
-            case "repository-configuration":
-                return repositoryConfigurationsMessageHandler().handle(goPluginApiRequest);
-            case "package-configuration":
-                return packageConfiguration().handle(goPluginApiRequest);
-            case "validate-repository-configuration":
-                return validateRepositoryConfiguration().handle(goPluginApiRequest);
-            case "validate-package-configuration":
-                return validatePackageConfiguration().handle(goPluginApiRequest);
-            case "check-repository-connection":
-                return checkRepositoryConnection().handle(goPluginApiRequest);
-            case "check-package-connection":
-                return checkPackageConnection().handle(goPluginApiRequest);
-            case "latest-revision":
-                return latestRevision().handle(goPluginApiRequest);
-            case "latest-revision-since":
-                return latestRevisionSince().handle(goPluginApiRequest);
-            default:
-                logger.error("request name :" + requestName);
-                logger.error(goPluginApiRequest.requestBody());
-                logger.error(goPluginApiRequest.extension());
-                logger.error(goPluginApiRequest.requestHeaders().toString());
-                logger.error(goPluginApiRequest.requestParameters().toString());
-                logger.error("-------------------------------------------");
-
-                return badRequest("unknown for now");
+        MessageHandler messageHandler = messageHandlers.get(requestName);
+        if (messageHandler != null) {
+            return messageHandler.handle(goPluginApiRequest);
         }
+        unknownRequestErrors.increment();
+
+        logger.error("request name :" + requestName);
+        logger.error(goPluginApiRequest.requestBody());
+        logger.error(goPluginApiRequest.extension());
+        logger.error(goPluginApiRequest.requestHeaders().toString());
+        logger.error(goPluginApiRequest.requestParameters().toString());
+        logger.error("-------------------------------------------");
+
+        return badRequest("unknown for now");
+    }
+
+    /**
+     * The handler, timed under {@code handle.<requestName>} and with its failures counted under
+     * {@code handle.<requestName>.errors}.
+     */
+    private MessageHandler metered(String requestName, final MessageHandler messageHandler) {
+        final LatencyHistogram latency = metrics.histogram("handle." + requestName);
+        final LongAdder errors = metrics.counter("handle." + requestName + ".errors");
+        return new MessageHandler() {
+            @Override
+            public GoPluginApiResponse handle(GoPluginApiRequest request) {
+                long start = System.nanoTime();
+                try {
+                    return messageHandler.handle(request);
+                } catch (RuntimeException e) {
+                    errors.increment();
+                    throw e;
+                } finally {
+                    latency.recordSince(start);
+                }
+            }
+        };
     }
 
     private MessageHandler repositoryConfigurationsMessageHandler() {
@@ -105,9 +178,26 @@ public class AmiMaterial implements GoPlugin {
                 Map<String, PackageMaterialProperty> packageMaterialPropertyMap = new HashMap<>();
 
                 PackageMaterialProperty packageMaterialProperty = new PackageMaterialProperty();
-                packageMaterialProperty.withDisplayName("Region");
+                packageMaterialProperty.withDisplayName("Region (comma separated to poll several regions)");
                 packageMaterialProperty.withDisplayOrder("0");
                 packageMaterialPropertyMap.put("REGION", packageMaterialProperty);
+
+                addPackageMaterialProperty(packageMaterialPropertyMap, "Owners (optional, comma separated account ids or self | amazon | aws-marketplace). Defaults to the catalogue owners, or else self.", "1", false, "OWNERS");
+                addPackageMaterialProperty(packageMaterialPropertyMap, "Executable by (optional, comma separated account ids or self | all)", "2", false, "EXECUTABLE_BY");
+
+                PackageMaterialProperty catalogueOwnersProperty = new PackageMaterialProperty();
+                catalogueOwnersProperty.withDisplayName("Catalogue owner account ids (optional, comma separated). When set, packages are matched against one region-wide catalogue of the images these accounts own.");
+                catalogueOwnersProperty.withDisplayOrder("3");
+                catalogueOwnersProperty.withRequired(false);
+                catalogueOwnersProperty.withPartOfIdentity(false);
+                packageMaterialPropertyMap.put("CATALOGUE_OWNERS", catalogueOwnersProperty);
+
+                PackageMaterialProperty roleArnProperty = new PackageMaterialProperty();
+                roleArnProperty.withDisplayName("IAM role ARN (optional). When set, images are looked up with a session of this role instead of the server's own credentials.");
+                roleArnProperty.withDisplayOrder("4");
+                roleArnProperty.withRequired(false);
+                roleArnProperty.withPartOfIdentity(false);
+                packageMaterialPropertyMap.put("ROLE_ARN", roleArnProperty);
                 return success(gson.toJson(packageMaterialPropertyMap));
             }
         };
@@ -122,33 +212,67 @@ public class AmiMaterial implements GoPlugin {
                 addPackageMaterialProperty(packageMaterialPropertyMap, "Architecture (i386 | x86_64)", "1", false, "ARCH");
                 addPackageMaterialProperty(packageMaterialPropertyMap, "The key of a tag assigned to the resource. This filter is independent of the tag-value filter.", "2", false, "TAG_KEY");
                 addPackageMaterialProperty(packageMaterialPropertyMap, "The value of a tag assigned to the resource. This filter is independent of the tag-key filter.", "3", false, "TAG_VALUE");
+                addPackageMaterialProperty(packageMaterialPropertyMap, "A tag assigned to the resource, as key=value. Only resources where the tag key has this value match.", "4", false, "TAG");
+                addPackageMaterialProperty(packageMaterialPropertyMap, "Virtualization type (hvm | paravirtual)", "5", false, "VIRTUALIZATION_TYPE");
+                addPackageMaterialProperty(packageMaterialPropertyMap, "Root device type (ebs | instance-store)", "6", false, "ROOT_DEVICE_TYPE");
+
+                PackageMaterialProperty publishedTagsProperty = new PackageMaterialProperty();
+                publishedTagsProperty.withDisplayName("Published tags (optional, comma separated tag keys). The values of these tags are made available to jobs as GO_PACKAGE_<REPO>_<PACKAGE>_TAG_<KEY>.");
+                publishedTagsProperty.withDisplayOrder("7");
+                publishedTagsProperty.withRequired(false);
+                publishedTagsProperty.withPartOfIdentity(false);
+                packageMaterialPropertyMap.put("PUBLISHED_TAGS", publishedTagsProperty);
                 return success(gson.toJson(packageMaterialPropertyMap));
             }
+        };
+    }
 
-            private void addPackageMaterialProperty(Map<String, PackageMaterialProperty> packageMaterialPropertyMap, String displayName, String displayOrder, boolean required, String key) {
-                PackageMaterialProperty packageMaterialProperty = new PackageMaterialProperty();
-                packageMaterialProperty.withDisplayName(displayName);
-                packageMaterialProperty.withDisplayOrder(displayOrder);
-                packageMaterialProperty.withRequired(required);
+    private void addPackageMaterialProperty(Map<String, PackageMaterialProperty> packageMaterialPropertyMap, String displayName, String displayOrder, boolean required, String key) {
+        PackageMaterialProperty packageMaterialProperty = new PackageMaterialProperty();
+        packageMaterialProperty.withDisplayName(displayName);
+        packageMaterialProperty.withDisplayOrder(displayOrder);
+        packageMaterialProperty.withRequired(required);
 
-                packageMaterialPropertyMap.put(key, packageMaterialProperty);
-            }
-        };
+        packageMaterialPropertyMap.put(key, packageMaterialProperty);
     }
 
     private MessageHandler validateRepositoryConfiguration() {
         return new MessageHandler() {
             @Override
             public GoPluginApiResponse handle(GoPluginApiRequest request) {
-                ValidateRepositoryConfigurationMessage validateRepositoryConfigurationMessage = gson.fromJson(request.requestBody(), ValidateRepositoryConfigurationMessage.class);
+                ValidateRepositoryConfigurationMessage validateRepositoryConfigurationMessage = PluginRequestDecoder.decodeValidateRepositoryConfiguration(request.requestBody());
                 PackageMaterialProperty regionMaterialProperty = validateRepositoryConfigurationMessage.getRepositoryConfiguration().getProperty("REGION");
 
                 if (regionMaterialProperty != null) {
-                    String region = regionMaterialProperty.value();
-                    if (REGIONS.contains(region)) {
-                        return success("");
+                    List<String> regions = listProperty(validateRepositoryConfigurationMessage.getRepositoryConfiguration(), "REGION");
+                    if (regions.isEmpty()) {
+                        return success(format(VALIDATE_REPO_CONFIG_INVALID_REGION_MSG, regionMaterialProperty.value()));
+                    }
+                    for (String region : regions) {
+                        if (!REGIONS.contains(region)) {
+                            return success(format(VALIDATE_REPO_CONFIG_INVALID_REGION_MSG, region));
+                        }
                     }
-                    return success(format(VALIDATE_REPO_CONFIG_INVALID_REGION_MSG, region));
+                    for (String owner : listProperty(validateRepositoryConfigurationMessage.getRepositoryConfiguration(), "OWNERS")) {
+                        if (!owner.matches("\\d{12}|self|amazon|aws-marketplace")) {
+                            return success(format(VALIDATE_REPO_CONFIG_INVALID_OWNER_MSG, owner));
+                        }
+                    }
+                    for (String user : listProperty(validateRepositoryConfigurationMessage.getRepositoryConfiguration(), "EXECUTABLE_BY")) {
+                        if (!user.matches("\\d{12}|self|all")) {
+                            return success(format(VALIDATE_REPO_CONFIG_INVALID_EXECUTABLE_BY_MSG, user));
+                        }
+                    }
+                    for (String owner : listProperty(validateRepositoryConfigurationMessage.getRepositoryConfiguration(), "CATALOGUE_OWNERS")) {
+                        if (!owner.matches("\\d{12}")) {
+                            return success(format(VALIDATE_REPO_CONFIG_INVALID_CATALOGUE_OWNER_MSG, owner));
+                        }
+                    }
+                    String roleArn = roleArn(validateRepositoryConfigurationMessage.getRepositoryConfiguration());
+                    if (roleArn != null && !roleArn.matches("arn:aws[a-z-]*:iam::\\d{12}:role/[\\w+=,.@/-]{1,512}")) {
+                        return success(format(VALIDATE_REPO_CONFIG_INVALID_ROLE_ARN_MSG, roleArn));
+                    }
+                    return success("");
                 }
                 return success(VALIDATE_REPO_CONFIG_MISSING_REGION_KEY_MSG);
             }
@@ -159,14 +283,23 @@ public class AmiMaterial implements GoPlugin {
         return new MessageHandler() {
             @Override
             public GoPluginApiResponse handle(GoPluginApiRequest request) {
-                ValidatePackageConfigurationMessage validatePackageConfigurationMessage = gson.fromJson(request.requestBody(), ValidatePackageConfigurationMessage.class);
+                ValidatePackageConfigurationMessage validatePackageConfigurationMessage = PluginRequestDecoder.decodeValidatePackageConfiguration(request.requestBody());
                 PackageMaterialProperty amiSpec = validatePackageConfigurationMessage.getPackageConfiguration().getProperty("AMI_SPEC");
                 PackageMaterialProperty arch = validatePackageConfigurationMessage.getPackageConfiguration().getProperty("ARCH");
+                PackageMaterialProperty tag = validatePackageConfigurationMessage.getPackageConfiguration().getProperty("TAG");
+                PackageMaterialProperty virtualizationType = validatePackageConfigurationMessage.getPackageConfiguration().getProperty("VIRTUALIZATION_TYPE");
+                PackageMaterialProperty rootDeviceType = validatePackageConfigurationMessage.getPackageConfiguration().getProperty("ROOT_DEVICE_TYPE");
 
                 if (amiSpec.value().length() <= 3 || amiSpec.value().length() >= 128) {
                     return success(VALIDATE_PACKAGE_CONFIG_INVALID_AMI_NAME_MSG);
                 } else if (arch != null && !arch.value().equals("i386") && !arch.value().equals("x86_64")) {
                     return success(VALIDATE_PACKAGE_CONFIG_INVALID_ARCH_VALUE);
+                } else if (hasValue(tag) && tagKeyAndValue(tag.value()) == null) {
+                    return success(VALIDATE_PACKAGE_CONFIG_INVALID_TAG_VALUE);
+                } else if (hasValue(virtualizationType) && !virtualizationType.value().equals("hvm") && !virtualizationType.value().equals("paravirtual")) {
+                    return success(VALIDATE_PACKAGE_CONFIG_INVALID_VIRTUALIZATION_TYPE_VALUE);
+                } else if (hasValue(rootDeviceType) && !rootDeviceType.value().equals("ebs") && !rootDeviceType.value().equals("instance-store")) {
+                    return success(VALIDATE_PACKAGE_CONFIG_INVALID_ROOT_DEVICE_TYPE_VALUE);
                 }
 
                 return success("");
@@ -178,23 +311,35 @@ public class AmiMaterial implements GoPlugin {
         return new MessageHandler() {
             @Override
             public GoPluginApiResponse handle(GoPluginApiRequest request) {
-                ValidateRepositoryConfigurationMessage validateRepositoryConfigurationMessage = gson.fromJson(request.requestBody(), ValidateRepositoryConfigurationMessage.class);
-
-                AmazonEC2Client amazonEC2Client = AmazonEC2ClientFactory.newInstance(validateRepositoryConfigurationMessage.getRepositoryConfiguration().getProperty("REGION").value());
-                DryRunResult<DescribeImagesRequest> describeImagesRequestDryRunResult = amazonEC2Client.dryRun(new DescribeImagesRequest());
-
-                if (describeImagesRequestDryRunResult.isSuccessful()) {
+                ValidateRepositoryConfigurationMessage validateRepositoryConfigurationMessage = PluginRequestDecoder.decodeValidateRepositoryConfiguration(request.requestBody());
+                PackageMaterialProperties repositoryConfiguration = validateRepositoryConfigurationMessage.getRepositoryConfiguration();
+                List<ImageQuery> regionQueries = new ArrayList<>();
+                for (String region : listProperty(repositoryConfiguration, "REGION")) {
+                    regionQueries.add(new ImageQuery(region).withRoleArn(roleArn(repositoryConfiguration)));
+                }
+                if (regionQueries.isEmpty()) {
                     return success("{\n" +
-                            "    \"status\": \"success\",\n" +
+                            "    \"status\": \"failure\",\n" +
                             "    \"messages\": [\n" +
-                            "        \"Successfully connected to region\"\n" +
+                            "        \"No region configured\"\n" +
                             "    ]\n" +
                             "}");
                 }
+
+                for (ConnectionCheck connectionCheck : checkConnections(regionQueries)) {
+                    if (!connectionCheck.isSuccessful()) {
+                        return success("{\n" +
+                                "    \"status\": \"failure\",\n" +
+                                "    \"messages\": [\n" +
+                                "        " + gson.toJson(connectionCheck.getMessage()) + "\n" +
+                                "    ]\n" +
+                                "}");
+                    }
+                }
                 return success("{\n" +
-                        "    \"status\": \"failure\",\n" +
+                        "    \"status\": \"success\",\n" +
                         "    \"messages\": [\n" +
-                        "        \"" + describeImagesRequestDryRunResult.getMessage() + "\"\n" +
+                        "        \"Successfully connected to region\"\n" +
                         "    ]\n" +
                         "}");
             }
@@ -205,24 +350,40 @@ public class AmiMaterial implements GoPlugin {
         return new MessageHandler() {
             @Override
             public GoPluginApiResponse handle(GoPluginApiRequest request) {
-                ValidatePackageConfigurationMessage validatePackageConfigurationMessage = gson.fromJson(request.requestBody(), ValidatePackageConfigurationMessage.class);
-                AmazonEC2Client amazonEC2Client = AmazonEC2ClientFactory.newInstance(validatePackageConfigurationMessage.getRepositoryConfiguration().getProperty("REGION").value());
+                ValidatePackageConfigurationMessage validatePackageConfigurationMessage = PluginRequestDecoder.decodeValidatePackageConfiguration(request.requestBody());
+                List<ImageQuery> imageQueries = buildImageQueriesFromConfiguration(validatePackageConfigurationMessage.getRepositoryConfiguration(), validatePackageConfigurationMessage.getPackageConfiguration());
+                final List<String> catalogueOwners = listProperty(validatePackageConfigurationMessage.getRepositoryConfiguration(), "CATALOGUE_OWNERS");
+                List<ImageProbe> regionProbes = regionFanOut.apply(imageQueries, new Function<ImageQuery, ImageProbe>() {
+                    @Override
+                    public ImageProbe apply(ImageQuery imageQuery) {
+                        return imageService.probeImages(imageQuery, catalogueOwners);
+                    }
+                });
 
-                DescribeImagesRequest describeImagesRequest = buildDescribeImageRequestFromPackageConfiguration(validatePackageConfigurationMessage.getPackageConfiguration());
-                if (!amazonEC2Client.describeImages(describeImagesRequest).getImages().isEmpty()) {
+                List<ImageQuery> emptyQueries = new ArrayList<>();
+                StringBuilder regionMessages = new StringBuilder();
+                for (int i = 0; i < imageQueries.size(); i++) {
+                    if (regionProbes.get(i).isEmpty()) {
+                        emptyQueries.add(imageQueries.get(i));
+                    }
+                    regionMessages.append(",\n        \"").append(imageQueries.get(i).getRegion()).append(": ").append(regionProbes.get(i).describe()).append("\"");
+                }
+                if (emptyQueries.isEmpty()) {
                     return success("{\n" +
                             "    \"status\": \"success\",\n" +
                             "    \"messages\": [\n" +
-                            "        \"Successfully found package\"\n" +
+                            "        \"Successfully found package\"" + regionMessages + "\n" +
                             "    ]\n" +
                             "}");
                 }
 
-                logger.error("describe image request: " + describeImagesRequest.toString());
+                for (ImageQuery imageQuery : emptyQueries) {
+                    logger.error("describe image request in " + imageQuery.getRegion() + ": " + imageQuery.toDescribeImagesRequest().toString());
+                }
                 return success("{\n" +
                         "    \"status\": \"failure\",\n" +
                         "    \"messages\": [\n" +
-                        "        \"No images found\"\n" +
+                        "        \"No images found\"" + regionMessages + "\n" +
                         "    ]\n" +
                         "}");
             }
@@ -235,39 +396,32 @@ public class AmiMaterial implements GoPlugin {
         return new MessageHandler() {
             @Override
             public GoPluginApiResponse handle(GoPluginApiRequest request) {
-                ValidatePackageConfigurationMessage validatePackageConfigurationMessage = gson.fromJson(request.requestBody(), ValidatePackageConfigurationMessage.class);
-                AmazonEC2Client amazonEC2Client = AmazonEC2ClientFactory.newInstance(validatePackageConfigurationMessage.getRepositoryConfiguration().getProperty("REGION").value());
-
-                List<Image> images = amazonEC2Client.describeImages(buildDescribeImageRequestFromPackageConfiguration(validatePackageConfigurationMessage.getPackageConfiguration())).getImages();
-
-                Collections.sort(images, IMAGE_DESC_DATE_ORDER_COMPARATOR);
-
-                Image latestImage = Iterables.getFirst(images, null);
-                if (latestImage != null) {
-                    Tag pipelineName = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("pipelineName")), EMPTY_TAG);
-                    Tag pipelineCounter = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("pipelineCounter")), EMPTY_TAG);
-                    Tag stageName = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("stageName")), EMPTY_TAG);
-                    Tag stageCounter = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("stageCounter")), EMPTY_TAG);
-                    Tag jobName = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("jobName")), EMPTY_TAG);
-
-
-                    return success(String.format("{\n" +
-                                    "    \"revision\": \"%s\",\n" +
-                                    "    \"timestamp\": \"%s\",\n" +
-                                    "    \"user\": \"%s\",\n" +
-                                    "    \"revisionComment\": \"%s\",\n" +
-                                    "    \"trackbackUrl\": \"%s\",\n" +
-                                    "    \"data\": {\n" +
-                                    "    }\n" +
-                                    "}",
-                            latestImage.getImageId(),
-                            latestImage.getCreationDate(),
-                            latestImage.getOwnerId(),
-                            latestImage.getDescription(),
-                            "http://go-server:8153/go/tab/build/detail/" + pipelineName.getValue() + "/" + pipelineCounter.getValue() + "/" + stageName.getValue() + "/" + stageCounter.getValue() + "/" + jobName.getValue()));
-                }
+                final ValidatePackageConfigurationMessage validatePackageConfigurationMessage = PluginRequestDecoder.decodeValidatePackageConfiguration(request.requestBody());
+                final List<ImageQuery> imageQueries = buildImageQueriesFromConfiguration(validatePackageConfigurationMessage.getRepositoryConfiguration(), validatePackageConfigurationMessage.getPackageConfiguration());
+                final List<String> publishedTags = listProperty(validatePackageConfigurationMessage.getPackageConfiguration(), "PUBLISHED_TAGS");
+                return success(revisionFallback.latestRevision(Arrays.asList(imageQueries, publishedTags), new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        List<ImageRecord> regionLatest = regionFanOut.apply(imageQueries, circuitBreaker.guard(new Function<ImageQuery, ImageRecord>() {
+                            @Override
+                            public ImageRecord apply(ImageQuery imageQuery) {
+                                return findImages(imageQuery, validatePackageConfigurationMessage.getRepositoryConfiguration()).latest();
+                            }
+                        }));
 
-                return success("");
+                        int latest = -1;
+                        for (int i = 0; i < regionLatest.size(); i++) {
+                            if (regionLatest.get(i) != null && (latest < 0 || regionLatest.get(i).getCreationMillis() > regionLatest.get(latest).getCreationMillis())) {
+                                latest = i;
+                            }
+                        }
+                        if (latest >= 0) {
+                            return revisionEncoder.encode(imageQueries, regionLatest.get(latest), imageQueries.get(latest).getRegion(), publishedTags);
+                        }
+
+                        return "";
+                    }
+                }));
             }
 
 
@@ -278,75 +432,193 @@ public class AmiMaterial implements GoPlugin {
         return new MessageHandler() {
             @Override
             public GoPluginApiResponse handle(GoPluginApiRequest request) {
-                final LatestPackageRevisionSinceMessage latestRevisionSinceMessage = gson.fromJson(request.requestBody(), LatestPackageRevisionSinceMessage.class);
-                AmazonEC2Client amazonEC2Client = AmazonEC2ClientFactory.newInstance(latestRevisionSinceMessage.getRepositoryConfiguration().getProperty("REGION").value());
-
-                List<Image> images = amazonEC2Client.describeImages(buildDescribeImageRequestFromPackageConfiguration(latestRevisionSinceMessage.getPackageConfiguration())).getImages();
-                Collections.sort(images, IMAGE_ASC_DATE_ORDER_COMPARATOR);
-
-                Image latestImage = Iterables.getFirst(
-                        filter(images, new Predicate<Image>() {
+                final LatestPackageRevisionSinceMessage latestRevisionSinceMessage = PluginRequestDecoder.decodeLatestPackageRevisionSince(request.requestBody());
+                final DateTime previousTimestamp = latestRevisionSinceMessage.getPreviousRevision().getTimestamp();
+                final List<ImageQuery> packageQueries = buildImageQueriesFromConfiguration(latestRevisionSinceMessage.getRepositoryConfiguration(), latestRevisionSinceMessage.getPackageConfiguration());
+                final List<String> creationDateWindow = CreationDateWindow.prefixesSince(previousTimestamp, DateTime.now());
+                return success(revisionFallback.latestRevisionSince(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        List<ImageRecord> regionNext = regionFanOut.apply(packageQueries, circuitBreaker.guard(new Function<ImageQuery, ImageRecord>() {
                             @Override
-                            public boolean apply(Image input) {
-                                return parse(input.getCreationDate()).compareTo(latestRevisionSinceMessage.getPreviousRevision().getTimestamp()) > 0;
+                            public ImageRecord apply(ImageQuery packageQuery) {
+                                ImageQuery imageQuery = packageQuery;
+                                if (!creationDateWindow.isEmpty()) {
+                                    imageQuery = imageQuery.withFilter(CreationDateWindow.FILTER, creationDateWindow.toArray(new String[creationDateWindow.size()]));
+                                }
+
+                                ImageTimeline images = findImages(imageQuery, latestRevisionSinceMessage.getRepositoryConfiguration());
+                                return images.isCompleteAfter(previousTimestamp.getMillis())
+                                        ? images.firstCreatedAfter(previousTimestamp.getMillis())
+                                        : imageService.fetchFirstCreatedAfter(imageQuery, previousTimestamp.getMillis());
                             }
-                        }), null);
-
-                if (latestImage != null) {
-                    Tag pipelineName = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("pipelineName")), EMPTY_TAG);
-                    Tag pipelineCounter = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("pipelineCounter")), EMPTY_TAG);
-                    Tag stageName = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("stageName")), EMPTY_TAG);
-                    Tag stageCounter = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("stageCounter")), EMPTY_TAG);
-                    Tag jobName = Iterables.getFirst(Iterables.filter(latestImage.getTags(), getTagByKeyName("jobName")), EMPTY_TAG);
-
-                    return success(String.format("{\n" +
-                            "    \"revision\": \"%s\",\n" +
-                            "    \"timestamp\": \"%s\",\n" +
-                            "    \"user\": \"%s\",\n" +
-                            "    \"revisionComment\": \"%s\",\n" +
-                            "    \"trackbackUrl\": \"%s\",\n" +
-                            "    \"data\": {\n" +
-                            "    }\n" +
-                            "}",
-                            latestImage.getImageId(),
-                            latestImage.getCreationDate(),
-                            latestImage.getOwnerId(),
-                            latestImage.getDescription(),
-                            "http://go-server:8153/go/tab/build/detail/" + pipelineName.getValue() + "/" + pipelineCounter.getValue() + "/" + stageName.getValue() + "/" + stageCounter.getValue() + "/" + jobName.getValue()));
-                }
+                        }));
 
-                return success("");
+                        int next = -1;
+                        for (int i = 0; i < regionNext.size(); i++) {
+                            if (regionNext.get(i) != null && (next < 0 || regionNext.get(i).getCreationMillis() < regionNext.get(next).getCreationMillis())) {
+                                next = i;
+                            }
+                        }
+                        if (next >= 0) {
+                            return revisionEncoder.encode(packageQueries, regionNext.get(next), packageQueries.get(next).getRegion(), listProperty(latestRevisionSinceMessage.getPackageConfiguration(), "PUBLISHED_TAGS"));
+                        }
+
+                        return "";
+                    }
+                }));
 
             }
         };
     }
 
-    private Predicate<Tag> getTagByKeyName(final String tagKeyName) {
-        return new Predicate<Tag>() {
+    /**
+     * Checks the connection to the regions (with the roles) polled before a restart while the server starts, so the
+     * repository checks Go makes as it starts are answered from the connection check cache.
+     */
+    private void checkConnectionsInBackground(final List<ImageQuery> regionQueries) {
+        if (regionQueries.isEmpty()) {
+            return;
+        }
+        new ThreadFactoryBuilder()
+                .setNameFormat("ami-poller-connection-checks-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            List<ConnectionCheck> checks = checkConnections(regionQueries);
+                            for (int i = 0; i < regionQueries.size(); i++) {
+                                if (!checks.get(i).isSuccessful()) {
+                                    logger.warn("Unable to connect to " + regionQueries.get(i).getRegion() + ": " + checks.get(i).getMessage());
+                                }
+                            }
+                        } catch (RuntimeException e) {
+                            logger.warn("Unable to check the connection to " + regionQueries, e);
+                        }
+                    }
+                })
+                .start();
+    }
+
+    /**
+     * Checks the connection to every region, with the role of its query, in parallel, each with a dry run unless it was
+     * checked recently.
+     */
+    private List<ConnectionCheck> checkConnections(List<ImageQuery> regionQueries) {
+        return regionFanOut.apply(regionQueries, new Function<ImageQuery, ConnectionCheck>() {
             @Override
-            public boolean apply(Tag input) {
-                return input.getKey().equals(tagKeyName);
+            public ConnectionCheck apply(ImageQuery regionQuery) {
+                return checkConnection(regionQuery.getRegion(), regionQuery.getRoleArn());
             }
-        };
+        });
+    }
+
+    private ConnectionCheck checkConnection(final String region, final String roleArn) {
+        final String credentialsId = CredentialsProviders.credentialsId(roleArn);
+        return connectionChecks.get(region, credentialsId, new Callable<ConnectionCheck>() {
+            @Override
+            public ConnectionCheck call() throws Exception {
+                final AmazonEC2 amazonEC2Client = roleArn == null
+                        ? AmazonEC2ClientFactory.newInstance(region)
+                        : AmazonEC2ClientFactory.newInstance(region, credentialsId, CredentialsProviders.assumeRole(roleArn));
+                DryRunResult<DescribeImagesRequest> describeImagesRequestDryRunResult = rateLimiter.call(region, credentialsId, new Callable<DryRunResult<DescribeImagesRequest>>() {
+                    @Override
+                    public DryRunResult<DescribeImagesRequest> call() throws Exception {
+                        long start = System.nanoTime();
+                        try {
+                            return amazonEC2Client.dryRun(new DescribeImagesRequest());
+                        } finally {
+                            metrics.histogram("ec2.dry-run").recordSince(start);
+                        }
+                    }
+                });
+                return describeImagesRequestDryRunResult.isSuccessful()
+                        ? ConnectionCheck.successful()
+                        : ConnectionCheck.failed(describeImagesRequestDryRunResult.getMessage());
+            }
+        });
+    }
+
+    private ImageTimeline findImages(ImageQuery imageQuery, PackageMaterialProperties repositoryConfiguration) {
+        return imageService.findImages(imageQuery, listProperty(repositoryConfiguration, "CATALOGUE_OWNERS"));
+    }
+
+    private List<String> listProperty(PackageMaterialProperties configuration, String key) {
+        PackageMaterialProperty packageMaterialProperty = configuration.getProperty(key);
+        if (!hasValue(packageMaterialProperty)) {
+            return new ArrayList<>();
+        }
+        return Splitter.on(',').trimResults().omitEmptyStrings().splitToList(packageMaterialProperty.value());
+    }
+
+    private String roleArn(PackageMaterialProperties repositoryConfiguration) {
+        PackageMaterialProperty roleArn = repositoryConfiguration.getProperty("ROLE_ARN");
+        return hasValue(roleArn) ? roleArn.value().trim() : null;
+    }
+
+    private boolean hasValue(PackageMaterialProperty packageMaterialProperty) {
+        return packageMaterialProperty != null && packageMaterialProperty.value() != null && !packageMaterialProperty.value().isEmpty();
+    }
+
+    private List<ImageQuery> buildImageQueriesFromConfiguration(PackageMaterialProperties repositoryConfiguration, PackageMaterialProperties packageConfiguration) {
+        List<ImageQuery> imageQueries = new ArrayList<>();
+        for (String region : listProperty(repositoryConfiguration, "REGION")) {
+            imageQueries.add(buildImageQueryFromConfiguration(region, repositoryConfiguration, packageConfiguration));
+        }
+        return imageQueries;
     }
 
-    private DescribeImagesRequest buildDescribeImageRequestFromPackageConfiguration(PackageMaterialProperties packageConfiguration) {
-        DescribeImagesRequest describeImagesRequest = new DescribeImagesRequest();
-        List<Filter> filters = new ArrayList<>();
-        filters.add(new Filter("state", newArrayList("available")));
-        addPackageConfigToEC2Filter(filters, packageConfiguration.getProperty("AMI_SPEC"), "name");
-        addPackageConfigToEC2Filter(filters, packageConfiguration.getProperty("TAG_KEY"), "tag-key");
-        addPackageConfigToEC2Filter(filters, packageConfiguration.getProperty("TAG_VALUE"), "tag-value");
-        addPackageConfigToEC2Filter(filters, packageConfiguration.getProperty("ARCH"), "architecture");
-
-        describeImagesRequest.withFilters(filters);
-        return describeImagesRequest;
+    private ImageQuery buildImageQueryFromConfiguration(String region, PackageMaterialProperties repositoryConfiguration, PackageMaterialProperties packageConfiguration) {
+        ImageQuery imageQuery = new ImageQuery(region)
+                .withOwners(owners(repositoryConfiguration))
+                .withExecutableUsers(listProperty(repositoryConfiguration, "EXECUTABLE_BY"))
+                .withFilter("state", "available")
+                .withRoleArn(roleArn(repositoryConfiguration));
+        imageQuery = addPackageConfigToEC2Filter(imageQuery, packageConfiguration.getProperty("AMI_SPEC"), "name");
+        imageQuery = addPackageConfigToEC2Filter(imageQuery, packageConfiguration.getProperty("TAG_KEY"), "tag-key");
+        imageQuery = addPackageConfigToEC2Filter(imageQuery, packageConfiguration.getProperty("TAG_VALUE"), "tag-value");
+        imageQuery = addPackageConfigToEC2Filter(imageQuery, packageConfiguration.getProperty("ARCH"), "architecture");
+        imageQuery = addPackageConfigToEC2Filter(imageQuery, packageConfiguration.getProperty("VIRTUALIZATION_TYPE"), "virtualization-type");
+        imageQuery = addPackageConfigToEC2Filter(imageQuery, packageConfiguration.getProperty("ROOT_DEVICE_TYPE"), "root-device-type");
+
+        PackageMaterialProperty tag = packageConfiguration.getProperty("TAG");
+        if (hasValue(tag)) {
+            List<String> keyAndValue = tagKeyAndValue(tag.value());
+            if (keyAndValue == null) {
+                throw new IllegalArgumentException("Tag must be given as key=value, was " + tag.value());
+            }
+            imageQuery = imageQuery.withFilter("tag:" + keyAndValue.get(0), keyAndValue.get(1));
+        }
+        return imageQuery;
+    }
+
+    /**
+     * The key and value of a TAG setting, split at the first '=', or null when it has no key.
+     */
+    private static List<String> tagKeyAndValue(String tag) {
+        int separator = tag.indexOf('=');
+        return separator < 1 ? null : Arrays.asList(tag.substring(0, separator), tag.substring(separator + 1));
+    }
+
+    /**
+     * The owners a repository's images are looked up with: the configured ones, else the catalogue owners (so that the
+     * catalogue is not narrowed down to the calling account's own images), else {@link #DEFAULT_OWNERS}.
+     */
+    private List<String> owners(PackageMaterialProperties repositoryConfiguration) {
+        List<String> owners = listProperty(repositoryConfiguration, "OWNERS");
+        if (owners.isEmpty()) {
+            owners = listProperty(repositoryConfiguration, "CATALOGUE_OWNERS");
+        }
+        return owners.isEmpty() ? DEFAULT_OWNERS : owners;
     }
 
-    private void addPackageConfigToEC2Filter(List<Filter> filters, PackageMaterialProperty packageMaterialProperty, String filterKey) {
-        if (packageMaterialProperty != null && !packageMaterialProperty.value().isEmpty()) {
-            filters.add(new Filter(filterKey, newArrayList(packageMaterialProperty.value())));
+    private ImageQuery addPackageConfigToEC2Filter(ImageQuery imageQuery, PackageMaterialProperty packageMaterialProperty, String filterKey) {
+        if (hasValue(packageMaterialProperty)) {
+            return imageQuery.withFilter(filterKey, packageMaterialProperty.value());
         }
+        return imageQuery;
     }
 
     @Override
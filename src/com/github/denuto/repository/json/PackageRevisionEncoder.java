@@ -0,0 +1,194 @@
+package com.github.denuto.repository.json;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.ImageRecord;
+import com.github.denuto.repository.models.PackageRevisionMessage;
+import com.github.denuto.repository.models.TagProjection;
+import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonWriter;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes package revisions into the JSON body of latest-revision and latest-revision-since responses.
+ * <p>
+ * Trackback urls point at the Go job that built the image (from its pipelineName, pipelineCounter, stageName,
+ * stageCounter and jobName tags) on the server at {@code ami.poller.trackback.base.url} (default
+ * http://go-server:8153). The region the image was found in is added to the revision data as {@code SOURCE_REGION},
+ * and the values of the package's published tags as {@code TAG_<KEY>}, with the key upper-cased and anything but
+ * letters, digits and underscores replaced by underscores.
+ * <p>
+ * Encoded responses are memoized per package, published tags, source region and image, so polls that find the same latest
+ * image as before are answered with the payload encoded the first time. An image whose tags, description, owner or
+ * creation date changed since is encoded afresh.
+ */
+public class PackageRevisionEncoder {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = ISODateTimeFormat.dateTime().withZone(DateTimeZone.UTC);
+    private static final int MAX_ENCODED_REVISIONS = 1000;
+    private static final List<String> TRACKBACK_TAG_KEYS = ImmutableList.of("pipelineName", "pipelineCounter", "stageName", "stageCounter", "jobName");
+
+    private final String trackbackBaseUrl;
+    private final Cache<RevisionKey, String> encodedRevisions = CacheBuilder.newBuilder()
+            .maximumSize(MAX_ENCODED_REVISIONS)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .recordStats()
+            .build();
+
+    public PackageRevisionEncoder(String trackbackBaseUrl) {
+        this.trackbackBaseUrl = trackbackBaseUrl.endsWith("/") ? trackbackBaseUrl.substring(0, trackbackBaseUrl.length() - 1) : trackbackBaseUrl;
+        PluginMetrics.shared().cacheGauges("cache.revisions", encodedRevisions);
+    }
+
+    public static PackageRevisionEncoder fromSystemProperties() {
+        return new PackageRevisionEncoder(System.getProperty("ami.poller.trackback.base.url", "http://go-server:8153"));
+    }
+
+    /**
+     * The encoded revision for the image, memoized per package (any value identifying the package configuration),
+     * published tags, source region and the encoded fields of the image.
+     */
+    public String encode(Object packageKey, final ImageRecord imageRecord, final String sourceRegion, final List<String> publishedTags) {
+        try {
+            return encodedRevisions.get(new RevisionKey(packageKey, publishedTags, sourceRegion, imageRecord.getImage()), new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return encode(toPackageRevision(imageRecord, sourceRegion, publishedTags));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to encode revision " + imageRecord, e.getCause());
+        }
+    }
+
+    public PackageRevisionMessage toPackageRevision(ImageRecord imageRecord, String sourceRegion, List<String> publishedTags) {
+        Image image = imageRecord.getImage();
+        TagProjection tagProjection = new TagProjection(Lists.newArrayList(Iterables.concat(TRACKBACK_TAG_KEYS, publishedTags)));
+        String[] tags = tagProjection.project(image.getTags());
+
+        PackageRevisionMessage packageRevision = new PackageRevisionMessage(
+                image.getImageId(),
+                image.getCreationDate() == null ? null : new DateTime(imageRecord.getCreationMillis(), DateTimeZone.UTC),
+                nullToEmpty(image.getOwnerId()),
+                nullToEmpty(image.getDescription()),
+                trackbackBaseUrl + "/go/tab/build/detail/" + Joiner.on('/').useForNull("").join(Arrays.copyOf(tags, TRACKBACK_TAG_KEYS.size())));
+        packageRevision.addData("SOURCE_REGION", sourceRegion);
+        for (String publishedTag : publishedTags) {
+            String value = tags[tagProjection.position(publishedTag)];
+            if (value != null) {
+                packageRevision.addData(dataKey(publishedTag), value);
+            }
+        }
+        return packageRevision;
+    }
+
+    /**
+     * The revision data key a published tag is exposed under, usable in an environment variable name.
+     */
+    public static String dataKey(String tagKey) {
+        return "TAG_" + tagKey.toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9_]", "_");
+    }
+
+    public String encode(PackageRevisionMessage packageRevision) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("revision").value(packageRevision.getRevision());
+            writer.name("timestamp").value(packageRevision.getTimestamp() == null ? null : TIMESTAMP_FORMAT.print(packageRevision.getTimestamp()));
+            writer.name("user").value(packageRevision.getUser());
+            writer.name("revisionComment").value(packageRevision.getRevisionComment());
+            writer.name("trackbackUrl").value(packageRevision.getTrackbackUrl());
+            writer.name("data").beginObject();
+            for (Map.Entry<String, String> data : packageRevision.getData().entrySet()) {
+                writer.name(data.getKey()).value(data.getValue());
+            }
+            writer.endObject();
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode revision " + packageRevision.getRevision(), e);
+        }
+        return out.toString();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static class RevisionKey {
+        private final Object packageKey;
+        private final List<String> publishedTags;
+        private final String sourceRegion;
+        private final String imageId;
+        private final String ownerId;
+        private final String description;
+        private final String creationDate;
+        // EC2 does not list an image's tags in any particular order
+        private final Set<Tag> tags;
+
+        private RevisionKey(Object packageKey, List<String> publishedTags, String sourceRegion, Image image) {
+            this.packageKey = packageKey;
+            this.publishedTags = publishedTags;
+            this.sourceRegion = sourceRegion;
+            this.imageId = image.getImageId();
+            this.ownerId = image.getOwnerId();
+            this.description = image.getDescription();
+            this.creationDate = image.getCreationDate();
+            this.tags = new HashSet<>(image.getTags());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            RevisionKey that = (RevisionKey) o;
+            return packageKey.equals(that.packageKey)
+                    && publishedTags.equals(that.publishedTags)
+                    && Objects.equals(sourceRegion, that.sourceRegion)
+                    && Objects.equals(imageId, that.imageId)
+                    && Objects.equals(ownerId, that.ownerId)
+                    && Objects.equals(description, that.description)
+                    && Objects.equals(creationDate, that.creationDate)
+                    && tags.equals(that.tags);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = packageKey.hashCode();
+            result = 31 * result + publishedTags.hashCode();
+            result = 31 * result + Objects.hashCode(sourceRegion);
+            result = 31 * result + Objects.hashCode(imageId);
+            result = 31 * result + Objects.hashCode(ownerId);
+            result = 31 * result + Objects.hashCode(description);
+            result = 31 * result + Objects.hashCode(creationDate);
+            result = 31 * result + tags.hashCode();
+            return result;
+        }
+    }
+}
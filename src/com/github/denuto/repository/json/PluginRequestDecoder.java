@@ -0,0 +1,190 @@
+package com.github.denuto.repository.json;
+
+import com.github.denuto.repository.models.LatestPackageRevisionSinceMessage;
+import com.github.denuto.repository.models.PackageMaterialProperties;
+import com.github.denuto.repository.models.PackageMaterialProperty;
+import com.github.denuto.repository.models.PackageRevisionMessage;
+import com.github.denuto.repository.models.ValidatePackageConfigurationMessage;
+import com.github.denuto.repository.models.ValidateRepositoryConfigurationMessage;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the request bodies Go sends for package material requests by streaming through them with a
+ * {@link JsonReader}, keeping only the value of each configuration property and skipping everything else.
+ */
+public class PluginRequestDecoder {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    private PluginRequestDecoder() {
+    }
+
+    public static ValidateRepositoryConfigurationMessage decodeValidateRepositoryConfiguration(String requestBody) {
+        PackageMaterialProperties repositoryConfiguration = new PackageMaterialProperties();
+        try (JsonReader reader = new JsonReader(new StringReader(requestBody))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("repository-configuration")) {
+                    repositoryConfiguration = readProperties(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("Unable to decode repository configuration request", e);
+        }
+        return new ValidateRepositoryConfigurationMessage(repositoryConfiguration);
+    }
+
+    public static ValidatePackageConfigurationMessage decodeValidatePackageConfiguration(String requestBody) {
+        PackageMaterialProperties repositoryConfiguration = new PackageMaterialProperties();
+        PackageMaterialProperties packageConfiguration = new PackageMaterialProperties();
+        try (JsonReader reader = new JsonReader(new StringReader(requestBody))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "repository-configuration":
+                        repositoryConfiguration = readProperties(reader);
+                        break;
+                    case "package-configuration":
+                        packageConfiguration = readProperties(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("Unable to decode package configuration request", e);
+        }
+        return new ValidatePackageConfigurationMessage(repositoryConfiguration, packageConfiguration);
+    }
+
+    public static LatestPackageRevisionSinceMessage decodeLatestPackageRevisionSince(String requestBody) {
+        PackageMaterialProperties repositoryConfiguration = new PackageMaterialProperties();
+        PackageMaterialProperties packageConfiguration = new PackageMaterialProperties();
+        PackageRevisionMessage previousRevision = null;
+        try (JsonReader reader = new JsonReader(new StringReader(requestBody))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "repository-configuration":
+                        repositoryConfiguration = readProperties(reader);
+                        break;
+                    case "package-configuration":
+                        packageConfiguration = readProperties(reader);
+                        break;
+                    case "previous-revision":
+                        previousRevision = readPackageRevision(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("Unable to decode latest revision since request", e);
+        }
+        return new LatestPackageRevisionSinceMessage(repositoryConfiguration, packageConfiguration, previousRevision);
+    }
+
+    private static PackageMaterialProperties readProperties(JsonReader reader) throws IOException {
+        PackageMaterialProperties properties = new PackageMaterialProperties();
+        if (skipNull(reader)) {
+            return properties;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            PackageMaterialProperty property = new PackageMaterialProperty();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("value")) {
+                    property.withValue(nextString(reader));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            properties.addPackageMaterialProperty(key, property);
+        }
+        reader.endObject();
+        return properties;
+    }
+
+    private static PackageRevisionMessage readPackageRevision(JsonReader reader) throws IOException {
+        if (skipNull(reader)) {
+            return null;
+        }
+        String revision = null;
+        DateTime timestamp = null;
+        String user = null;
+        String revisionComment = null;
+        String trackbackUrl = null;
+        Map<String, String> data = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "revision":
+                    revision = nextString(reader);
+                    break;
+                case "timestamp":
+                    String value = nextString(reader);
+                    timestamp = value == null ? null : TIMESTAMP_FORMAT.parseDateTime(value);
+                    break;
+                case "user":
+                    user = nextString(reader);
+                    break;
+                case "revisionComment":
+                    revisionComment = nextString(reader);
+                    break;
+                case "trackbackUrl":
+                    trackbackUrl = nextString(reader);
+                    break;
+                case "data":
+                    if (!skipNull(reader)) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            data.put(reader.nextName(), nextString(reader));
+                        }
+                        reader.endObject();
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        PackageRevisionMessage packageRevision = new PackageRevisionMessage(revision, timestamp, user, revisionComment, trackbackUrl);
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            packageRevision.addData(entry.getKey(), entry.getValue());
+        }
+        return packageRevision;
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        return skipNull(reader) ? null : reader.nextString();
+    }
+
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.denuto.repository.metrics;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters, latency histograms and gauges of the plugin's hot paths: request handling, EC2 calls, image selection
+ * and caches. Metrics are created on first use; callers on hot paths keep a reference to theirs rather than looking
+ * it up every time.
+ * <p>
+ * A single registry is {@link #shared() shared} by the whole plugin and exposed over JMX by {@link JmxMetrics}.
+ */
+public class PluginMetrics {
+
+    private static final PluginMetrics SHARED = new PluginMetrics();
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    public static PluginMetrics shared() {
+        return SHARED;
+    }
+
+    public LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    public LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a value read whenever the metrics are, replacing any gauge registered under the same name before.
+     */
+    public void gauge(String name, Supplier<? extends Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Registers the hits, misses, evictions and size of a cache recording its stats as gauges under the given name.
+     */
+    public void cacheGauges(String name, final Cache<?, ?> cache) {
+        gauge(name + ".hits", new Supplier<Long>() {
+            @Override
+            public Long get() {
+                return cache.stats().hitCount();
+            }
+        });
+        gauge(name + ".misses", new Supplier<Long>() {
+            @Override
+            public Long get() {
+                return cache.stats().missCount();
+            }
+        });
+        gauge(name + ".evictions", new Supplier<Long>() {
+            @Override
+            public Long get() {
+                return cache.stats().evictionCount();
+            }
+        });
+        gauge(name + ".size", new Supplier<Long>() {
+            @Override
+            public Long get() {
+                return cache.size();
+            }
+        });
+    }
+
+    /**
+     * Every metric's current value by name, histograms flattened into their count, mean, 50th, 95th and 99th percentile
+     * and maximum in milliseconds.
+     */
+    public Map<String, Number> values() {
+        Map<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            values.put(entry.getKey() + ".count", histogram.count());
+            values.put(entry.getKey() + ".meanMillis", histogram.meanMillis());
+            values.put(entry.getKey() + ".p50Millis", histogram.percentileMillis(0.5));
+            values.put(entry.getKey() + ".p95Millis", histogram.percentileMillis(0.95));
+            values.put(entry.getKey() + ".p99Millis", histogram.percentileMillis(0.99));
+            values.put(entry.getKey() + ".maxMillis", histogram.maxMillis());
+        }
+        for (Map.Entry<String, Supplier<? extends Number>> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().get());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.denuto.repository.models;
+
+/**
+ * How checking the connection to a region went, with the reason when it failed.
+ */
+public class ConnectionCheck {
+
+    private static final ConnectionCheck SUCCESSFUL = new ConnectionCheck(true, null);
+
+    private final boolean successful;
+    private final String message;
+
+    private ConnectionCheck(boolean successful, String message) {
+        this.successful = successful;
+        this.message = message;
+    }
+
+    public static ConnectionCheck successful() {
+        return SUCCESSFUL;
+    }
+
+    public static ConnectionCheck failed(String message) {
+        return new ConnectionCheck(false, message);
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * Why the check failed, or null when it succeeded.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.denuto.repository.models;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds {@code creation-date} filter values that cover every image created since a watermark, using day prefixes
+ * ({@code 2015-11-12*}) for short windows and month prefixes ({@code 2015-11*}) for longer ones. Windows too long to
+ * express compactly yield no values, meaning the query should not be narrowed.
+ */
+public class CreationDateWindow {
+
+    public static final String FILTER = "creation-date";
+
+    static final int MAX_DAY_PREFIXES = 31;
+    static final int MAX_MONTH_PREFIXES = 24;
+
+    private static final DateTimeFormatter DAY = DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+    private static final DateTimeFormatter MONTH = DateTimeFormat.forPattern("yyyy-MM").withZoneUTC();
+
+    private CreationDateWindow() {
+    }
+
+    /**
+     * Whether the query was narrowed to a window. Such queries change with every revision and day, so they are not worth
+     * refreshing in the background or keeping snapshots of.
+     */
+    public static boolean narrows(ImageQuery imageQuery) {
+        return imageQuery.getFilter(FILTER) != null;
+    }
+
+    /**
+     * Prefixes covering the UTC days from the watermark up to and including the day after {@code now} (allowing for
+     * clock skew between the Go server and EC2), or an empty list when the query should not be narrowed.
+     */
+    public static List<String> prefixesSince(DateTime watermark, DateTime now) {
+        if (watermark == null) {
+            return Collections.emptyList();
+        }
+        LocalDate from = watermark.withZone(DateTimeZone.UTC).toLocalDate();
+        LocalDate to = now.withZone(DateTimeZone.UTC).toLocalDate().plusDays(1);
+        if (from.isAfter(to)) {
+            return Collections.emptyList();
+        }
+
+        List<String> prefixes = new ArrayList<>();
+        for (LocalDate day = from; !day.isAfter(to) && prefixes.size() <= MAX_DAY_PREFIXES; day = day.plusDays(1)) {
+            prefixes.add(DAY.print(day.toDateTimeAtStartOfDay(DateTimeZone.UTC)) + "*");
+        }
+        if (prefixes.size() <= MAX_DAY_PREFIXES) {
+            return prefixes;
+        }
+
+        prefixes.clear();
+        for (LocalDate month = from.withDayOfMonth(1); !month.isAfter(to) && prefixes.size() <= MAX_MONTH_PREFIXES; month = month.plusMonths(1)) {
+            prefixes.add(MONTH.print(month.toDateTimeAtStartOfDay(DateTimeZone.UTC)) + "*");
+        }
+        if (prefixes.size() <= MAX_MONTH_PREFIXES) {
+            return prefixes;
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Collects images one at a time, keeping only the {@code limit} most recently created ones, so that memory stays
+ * bounded however many images a query matches. The resulting {@link ImageTimeline} knows from which instant on it
+ * still holds every image.
+ */
+public class ImageCandidates {
+
+    private static final Comparator<Candidate> OLDEST_FIRST = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            int byCreation = Long.compare(o1.record.getCreationMillis(), o2.record.getCreationMillis());
+            // among images created at the same time, evict the one listed last so the first listed one is kept
+            return byCreation != 0 ? byCreation : Long.compare(o2.sequence, o1.sequence);
+        }
+    };
+    private static final Comparator<Candidate> LISTING_ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            return Long.compare(o1.sequence, o2.sequence);
+        }
+    };
+
+    private final int limit;
+    private final PriorityQueue<Candidate> retained;
+    private long seen;
+    private long completeAfterMillis = Long.MIN_VALUE;
+
+    public ImageCandidates(int limit) {
+        this.limit = limit;
+        this.retained = new PriorityQueue<>(Math.min(limit, 1024) + 1, OLDEST_FIRST);
+    }
+
+    public void add(Image image) {
+        retained.add(new Candidate(ImageRecord.of(image), seen++));
+        if (retained.size() > limit) {
+            Candidate evicted = retained.poll();
+            completeAfterMillis = Math.max(completeAfterMillis, evicted.record.getCreationMillis());
+        }
+    }
+
+    /**
+     * Whether an image created at that instant would be retained if it were added now. When it would not, it is
+     * accounted for as if it had been added and evicted right away, so it need not be added at all.
+     */
+    public boolean offer(long creationMillis) {
+        if (retained.size() < limit || (!retained.isEmpty() && creationMillis > retained.peek().record.getCreationMillis())) {
+            return true;
+        }
+        seen++;
+        completeAfterMillis = Math.max(completeAfterMillis, creationMillis);
+        return false;
+    }
+
+    public long seen() {
+        return seen;
+    }
+
+    public ImageTimeline toTimeline() {
+        List<Candidate> candidates = new ArrayList<>(retained);
+        Collections.sort(candidates, LISTING_ORDER);
+        List<ImageRecord> records = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            records.add(candidate.record);
+        }
+        return ImageTimeline.ofRecords(records, completeAfterMillis);
+    }
+
+    private static class Candidate {
+        private final ImageRecord record;
+        private final long sequence;
+
+        private Candidate(ImageRecord record, long sequence) {
+            this.record = record;
+            this.sequence = sequence;
+        }
+    }
+}
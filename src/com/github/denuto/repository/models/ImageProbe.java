@@ -0,0 +1,73 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+
+/**
+ * What checking a package's connection found out about an image query: how many images match it, exactly or at
+ * least, and one of them.
+ */
+public class ImageProbe {
+
+    private static final ImageProbe NONE = new ImageProbe(0, true, null);
+
+    private final int matchingImages;
+    private final boolean exact;
+    private final Image sample;
+
+    private ImageProbe(int matchingImages, boolean exact, Image sample) {
+        this.matchingImages = matchingImages;
+        this.exact = exact;
+        this.sample = sample;
+    }
+
+    /**
+     * The images of a timeline, counted exactly when the timeline is complete, sampled by the latest one.
+     */
+    public static ImageProbe of(ImageTimeline images) {
+        if (images.isEmpty()) {
+            return NONE;
+        }
+        return new ImageProbe(images.size(), images.completeAfterMillis() == Long.MIN_VALUE, images.latest().getImage());
+    }
+
+    /**
+     * At least the given image matches.
+     */
+    public static ImageProbe found(Image image) {
+        return new ImageProbe(1, false, image);
+    }
+
+    public static ImageProbe none() {
+        return NONE;
+    }
+
+    public int getMatchingImages() {
+        return matchingImages;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * One of the matching images, or null when there is none.
+     */
+    public Image getSample() {
+        return sample;
+    }
+
+    public boolean isEmpty() {
+        return matchingImages == 0;
+    }
+
+    /**
+     * E.g. "at least 1 matching image, such as web-1234 (ami-0abc)".
+     */
+    public String describe() {
+        if (isEmpty()) {
+            return "no matching images";
+        }
+        return (exact ? "" : "at least ") + matchingImages + " matching image" + (matchingImages == 1 ? "" : "s")
+                + ", such as " + (sample.getName() == null ? sample.getImageId() : sample.getName() + " (" + sample.getImageId() + ")");
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.Filter;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Canonical form of a DescribeImages query: the region, owners, executable-by users and filters, with names and values
+ * sorted so that queries which differ only in ordering are equal. A query may also name an IAM role to assume for it, as
+ * the images visible to a role can differ from those visible with the default credentials.
+ */
+public class ImageQuery {
+
+    private final String region;
+    private final ImmutableSortedSet<String> owners;
+    private final ImmutableSortedSet<String> executableUsers;
+    private final ImmutableSortedMap<String, ImmutableSortedSet<String>> filters;
+    private final String roleArn;
+
+    public ImageQuery(String region) {
+        this(region, ImmutableSortedSet.<String>of(), ImmutableSortedSet.<String>of(), ImmutableSortedMap.<String, ImmutableSortedSet<String>>of(), null);
+    }
+
+    private ImageQuery(String region, ImmutableSortedSet<String> owners, ImmutableSortedSet<String> executableUsers, ImmutableSortedMap<String, ImmutableSortedSet<String>> filters, String roleArn) {
+        this.region = region;
+        this.owners = owners;
+        this.executableUsers = executableUsers;
+        this.filters = filters;
+        this.roleArn = roleArn;
+    }
+
+    public ImageQuery withFilter(String name, String... values) {
+        SortedMap<String, ImmutableSortedSet<String>> newFilters = new TreeMap<>(filters);
+        newFilters.put(name, ImmutableSortedSet.copyOf(values));
+        return new ImageQuery(region, owners, executableUsers, ImmutableSortedMap.copyOfSorted(newFilters), roleArn);
+    }
+
+    public ImageQuery withOwners(Collection<String> owners) {
+        return new ImageQuery(region, ImmutableSortedSet.copyOf(owners), executableUsers, filters, roleArn);
+    }
+
+    public ImageQuery withExecutableUsers(Collection<String> executableUsers) {
+        return new ImageQuery(region, owners, ImmutableSortedSet.copyOf(executableUsers), filters, roleArn);
+    }
+
+    /**
+     * The same query, run with the credentials of the role instead of the default ones (or with the default ones again
+     * when the role is null).
+     */
+    public ImageQuery withRoleArn(String roleArn) {
+        return new ImageQuery(region, owners, executableUsers, filters, roleArn);
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public SortedSet<String> getOwners() {
+        return owners;
+    }
+
+    public SortedSet<String> getExecutableUsers() {
+        return executableUsers;
+    }
+
+    public SortedMap<String, ImmutableSortedSet<String>> getFilters() {
+        return filters;
+    }
+
+    public SortedSet<String> getFilter(String name) {
+        return filters.get(name);
+    }
+
+    /**
+     * The role to assume for the query, or null to use the default credentials.
+     */
+    public String getRoleArn() {
+        return roleArn;
+    }
+
+    public DescribeImagesRequest toDescribeImagesRequest() {
+        List<Filter> ec2Filters = new ArrayList<>();
+        for (Map.Entry<String, ImmutableSortedSet<String>> filter : filters.entrySet()) {
+            ec2Filters.add(new Filter(filter.getKey(), newArrayList(filter.getValue())));
+        }
+        DescribeImagesRequest describeImagesRequest = new DescribeImagesRequest().withFilters(ec2Filters);
+        if (!owners.isEmpty()) {
+            describeImagesRequest.withOwners(owners);
+        }
+        if (!executableUsers.isEmpty()) {
+            describeImagesRequest.withExecutableUsers(executableUsers);
+        }
+        return describeImagesRequest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        ImageQuery that = (ImageQuery) o;
+        return region.equals(that.region)
+                && owners.equals(that.owners)
+                && executableUsers.equals(that.executableUsers)
+                && filters.equals(that.filters)
+                && Objects.equals(roleArn, that.roleArn);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = region.hashCode();
+        result = 31 * result + owners.hashCode();
+        result = 31 * result + executableUsers.hashCode();
+        result = 31 * result + filters.hashCode();
+        result = 31 * result + Objects.hashCode(roleArn);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageQuery{" +
+                "region='" + region + '\'' +
+                ", owners=" + owners +
+                ", executableUsers=" + executableUsers +
+                ", filters=" + filters +
+                (roleArn == null ? "" : ", roleArn='" + roleArn + '\'') +
+                '}';
+    }
+}
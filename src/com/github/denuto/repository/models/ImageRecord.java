@@ -0,0 +1,51 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * An image together with its creation date, parsed once into epoch milliseconds.
+ */
+public class ImageRecord {
+
+    private static final DateTimeFormatter CREATION_DATE_FORMAT = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+    private final Image image;
+    private final long creationMillis;
+
+    public ImageRecord(Image image, long creationMillis) {
+        this.image = image;
+        this.creationMillis = creationMillis;
+    }
+
+    /**
+     * Images without a creation date sort before every other image.
+     */
+    public static ImageRecord of(Image image) {
+        return new ImageRecord(image, creationMillis(image.getCreationDate()));
+    }
+
+    /**
+     * The creation date in epoch milliseconds, {@link Long#MIN_VALUE} when there is none.
+     */
+    public static long creationMillis(String creationDate) {
+        return creationDate == null ? Long.MIN_VALUE : CREATION_DATE_FORMAT.parseMillis(creationDate);
+    }
+
+    public Image getImage() {
+        return image;
+    }
+
+    public long getCreationMillis() {
+        return creationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageRecord{" +
+                "imageId='" + image.getImageId() + '\'' +
+                ", creationMillis=" + creationMillis +
+                '}';
+    }
+}
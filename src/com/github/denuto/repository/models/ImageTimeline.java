@@ -0,0 +1,141 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The images matching a query, indexed by creation time.
+ * <p>
+ * The latest image is selected in a single pass when the timeline is built. The time-ordered index used to find the
+ * first image created after a given instant is only built the first time it is needed. Where several images share a
+ * creation time, the one listed first by EC2 wins, as it did with the stable sorts this replaces.
+ * <p>
+ * A timeline built from {@link ImageCandidates} may not hold every matching image: it is only complete for images
+ * created after {@link #completeAfterMillis()}.
+ * <p>
+ * A timeline also knows when its images were fetched from EC2, so that one handed out again from a cache or a restored
+ * snapshot is not mistaken for a fresh one.
+ */
+public class ImageTimeline {
+
+    private final ImmutableList<ImageRecord> records;
+    private final ImageRecord latest;
+    private final long completeAfterMillis;
+    private final long fetchedMillis;
+    private volatile NavigableMap<Long, ImageRecord> byCreationTime;
+
+    private ImageTimeline(ImmutableList<ImageRecord> records, long completeAfterMillis, long fetchedMillis) {
+        this.records = records;
+        this.completeAfterMillis = completeAfterMillis;
+        this.fetchedMillis = fetchedMillis;
+        ImageRecord latest = null;
+        for (ImageRecord record : records) {
+            if (latest == null || record.getCreationMillis() > latest.getCreationMillis()) {
+                latest = record;
+            }
+        }
+        this.latest = latest;
+    }
+
+    public static ImageTimeline of(Collection<Image> images) {
+        ImmutableList.Builder<ImageRecord> records = ImmutableList.builder();
+        for (Image image : images) {
+            records.add(ImageRecord.of(image));
+        }
+        return new ImageTimeline(records.build(), Long.MIN_VALUE, System.currentTimeMillis());
+    }
+
+    public static ImageTimeline ofRecords(Collection<ImageRecord> records, long completeAfterMillis) {
+        return new ImageTimeline(ImmutableList.copyOf(records), completeAfterMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * The same images, as fetched at the given instant rather than now.
+     */
+    public ImageTimeline fetchedAt(long millis) {
+        return new ImageTimeline(records, completeAfterMillis, millis);
+    }
+
+    public ImageTimeline filter(Predicate<Image> predicate) {
+        List<ImageRecord> matching = new ArrayList<>();
+        for (ImageRecord record : records) {
+            if (predicate.apply(record.getImage())) {
+                matching.add(record);
+            }
+        }
+        return new ImageTimeline(ImmutableList.copyOf(matching), completeAfterMillis, fetchedMillis);
+    }
+
+    /**
+     * The most recently created image, or null when the timeline is empty.
+     */
+    public ImageRecord latest() {
+        return latest;
+    }
+
+    /**
+     * Every image created strictly after this instant is in the timeline; {@link Long#MIN_VALUE} when it is complete.
+     */
+    public long completeAfterMillis() {
+        return completeAfterMillis;
+    }
+
+    /**
+     * Whether {@link #firstCreatedAfter(long)} can be answered exactly for the instant.
+     */
+    public boolean isCompleteAfter(long millis) {
+        return millis >= completeAfterMillis;
+    }
+
+    /**
+     * The earliest image created strictly after the instant, or null when there is none in the timeline.
+     */
+    public ImageRecord firstCreatedAfter(long millis) {
+        if (latest == null || latest.getCreationMillis() <= millis) {
+            return null;
+        }
+        Map.Entry<Long, ImageRecord> entry = index().higherEntry(millis);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * When the images were fetched from EC2, in epoch milliseconds.
+     */
+    public long fetchedMillis() {
+        return fetchedMillis;
+    }
+
+    public List<ImageRecord> records() {
+        return records;
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    private NavigableMap<Long, ImageRecord> index() {
+        NavigableMap<Long, ImageRecord> index = byCreationTime;
+        if (index == null) {
+            index = new TreeMap<>();
+            for (ImageRecord record : records) {
+                if (!index.containsKey(record.getCreationMillis())) {
+                    index.put(record.getCreationMillis(), record);
+                }
+            }
+            byCreationTime = index;
+        }
+        return index;
+    }
+}
@@ -1,29 +1,23 @@
 package com.github.denuto.repository.models;
 
-import com.google.gson.annotations.Expose;
-import com.google.gson.annotations.SerializedName;
-
-import java.util.Map;
-
 public class LatestPackageRevisionSinceMessage {
-    @Expose
-    @SerializedName("repository-configuration")
-    private Map<String, PackageMaterialProperty> repositoryConfiguration;
 
-    @Expose
-    @SerializedName("package-configuration")
-    private Map<String, PackageMaterialProperty> packageConfiguration;
+    private final PackageMaterialProperties repositoryConfiguration;
+    private final PackageMaterialProperties packageConfiguration;
+    private final PackageRevisionMessage previousRevision;
 
-    @Expose
-    @SerializedName("previous-revision")
-    private PackageRevisionMessage previousRevision;
+    public LatestPackageRevisionSinceMessage(PackageMaterialProperties repositoryConfiguration, PackageMaterialProperties packageConfiguration, PackageRevisionMessage previousRevision) {
+        this.repositoryConfiguration = repositoryConfiguration;
+        this.packageConfiguration = packageConfiguration;
+        this.previousRevision = previousRevision;
+    }
 
     public PackageMaterialProperties getRepositoryConfiguration() {
-        return new PackageMaterialProperties(repositoryConfiguration);
+        return repositoryConfiguration;
     }
 
     public PackageMaterialProperties getPackageConfiguration() {
-        return new PackageMaterialProperties(packageConfiguration);
+        return packageConfiguration;
     }
 
     public PackageRevisionMessage getPreviousRevision() {
@@ -0,0 +1,81 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Tag;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the values of a fixed list of tag keys from an image's tags in a single pass.
+ * <p>
+ * Values come back positionally, in the order of {@link #keys()} (the given keys without duplicates); keys the image is
+ * not tagged with are null. When an image has the same tag key more than once the first tag wins.
+ */
+public class TagProjection {
+
+    private final ImmutableList<String> keys;
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    public TagProjection(Collection<String> keys) {
+        this.keys = ImmutableList.copyOf(new LinkedHashSet<>(keys));
+        for (int i = 0; i < this.keys.size(); i++) {
+            positions.put(this.keys.get(i), i);
+        }
+    }
+
+    public String[] project(Collection<Tag> tags) {
+        String[] values = new String[keys.size()];
+        int remaining = values.length;
+        for (Tag tag : tags) {
+            Integer position = tag.getKey() == null ? null : positions.get(tag.getKey());
+            if (position != null && values[position] == null) {
+                values[position] = tag.getValue() == null ? "" : tag.getValue();
+                if (--remaining == 0) {
+                    break;
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The position of the key's value in projected arrays, or -1 when the key is not projected.
+     */
+    public int position(String key) {
+        Integer position = positions.get(key);
+        return position == null ? -1 : position;
+    }
+
+    public List<String> keys() {
+        return keys;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        TagProjection that = (TagProjection) o;
+        return keys.equals(that.keys);
+    }
+
+    @Override
+    public int hashCode() {
+        return keys.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "TagProjection{" +
+                "keys=" + keys +
+                '}';
+    }
+}
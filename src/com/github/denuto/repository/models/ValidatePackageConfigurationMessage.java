@@ -1,26 +1,21 @@
 package com.github.denuto.repository.models;
 
-import com.google.gson.annotations.Expose;
-import com.google.gson.annotations.SerializedName;
-
-import java.util.Map;
-
 public class ValidatePackageConfigurationMessage {
 
-    @Expose
-    @SerializedName("repository-configuration")
-    private Map<String, PackageMaterialProperty> repositoryConfiguration;
+    private final PackageMaterialProperties repositoryConfiguration;
+    private final PackageMaterialProperties packageConfiguration;
 
-    @Expose
-    @SerializedName("package-configuration")
-    private Map<String, PackageMaterialProperty> packageConfiguration;
+    public ValidatePackageConfigurationMessage(PackageMaterialProperties repositoryConfiguration, PackageMaterialProperties packageConfiguration) {
+        this.repositoryConfiguration = repositoryConfiguration;
+        this.packageConfiguration = packageConfiguration;
+    }
 
     public PackageMaterialProperties getRepositoryConfiguration() {
-        return new PackageMaterialProperties(repositoryConfiguration);
+        return repositoryConfiguration;
     }
 
     public PackageMaterialProperties getPackageConfiguration() {
-        return new PackageMaterialProperties(packageConfiguration);
+        return packageConfiguration;
     }
 
     @Override
@@ -31,4 +26,3 @@ public class ValidatePackageConfigurationMessage {
                 '}';
     }
 }
-
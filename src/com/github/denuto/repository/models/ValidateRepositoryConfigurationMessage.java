@@ -1,25 +1,21 @@
 package com.github.denuto.repository.models;
 
-import com.google.gson.annotations.Expose;
-import com.google.gson.annotations.SerializedName;
-
-import java.util.Map;
-
 public class ValidateRepositoryConfigurationMessage {
 
-    @Expose
-    @SerializedName("repository-configuration")
-    private Map<String, PackageMaterialProperty> repositoryConfigurationMap;
+    private final PackageMaterialProperties repositoryConfiguration;
 
+    public ValidateRepositoryConfigurationMessage(PackageMaterialProperties repositoryConfiguration) {
+        this.repositoryConfiguration = repositoryConfiguration;
+    }
 
     public PackageMaterialProperties getRepositoryConfiguration() {
-        return new PackageMaterialProperties(repositoryConfigurationMap);
+        return repositoryConfiguration;
     }
 
     @Override
     public String toString() {
         return "ValidateRepositoryConfigurationMessage{" +
-                "repositoryConfigurationMap=" + repositoryConfigurationMap +
+                "repositoryConfiguration=" + repositoryConfiguration +
                 '}';
     }
 }
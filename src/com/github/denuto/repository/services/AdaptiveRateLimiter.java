@@ -0,0 +1,179 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.google.common.util.concurrent.RateLimiter;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Paces the EC2 calls made with each region and credentials identity through a token bucket whose rate adapts to
+ * throttling: every throttled call halves the rate, down to {@code ami.poller.ec2.min.rate} (default 1) calls per
+ * second, and every successful call raises it by a tenth of a call per second again, up to
+ * {@code ami.poller.ec2.max.rate} (default 20). Buckets start at the maximum rate.
+ * <p>
+ * Throttled calls are retried up to {@code ami.poller.ec2.throttle.retries} (default 5) times, after a random backoff
+ * of up to {@code ami.poller.ec2.throttle.backoff.millis} (default 200) milliseconds doubled for every retry and capped
+ * at 20 seconds.
+ * <p>
+ * Waiting for a bucket is interruptible, so a fetch cancelled while it waits gives up its call slot right away.
+ * <p>
+ * A single limiter is {@link #shared() shared} by everything calling EC2, as EC2 throttles per account and region.
+ */
+public class AdaptiveRateLimiter {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(AdaptiveRateLimiter.class);
+    private static final double ADDITIVE_INCREASE = 0.1;
+    private static final double MULTIPLICATIVE_DECREASE = 0.5;
+    private static final long MAX_BACKOFF_MILLIS = 20000;
+    private static final long ACQUIRE_POLL_MILLIS = 100;
+    private static final LongAdder THROTTLES = PluginMetrics.shared().counter("ec2.throttles");
+
+    private static AdaptiveRateLimiter shared;
+
+    private final double minRate;
+    private final double maxRate;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public AdaptiveRateLimiter(double minRate, double maxRate, int maxRetries, long backoffMillis) {
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    public static AdaptiveRateLimiter fromSystemProperties() {
+        return new AdaptiveRateLimiter(
+                Double.parseDouble(System.getProperty("ami.poller.ec2.min.rate", "1")),
+                Double.parseDouble(System.getProperty("ami.poller.ec2.max.rate", "20")),
+                Integer.getInteger("ami.poller.ec2.throttle.retries", 5),
+                Long.getLong("ami.poller.ec2.throttle.backoff.millis", 200));
+    }
+
+    public static synchronized AdaptiveRateLimiter shared() {
+        if (shared == null) {
+            shared = fromSystemProperties();
+        }
+        return shared;
+    }
+
+    /**
+     * Makes the call once the region and credentials identity's bucket allows it, retrying it while it is throttled.
+     */
+    public <T> T call(String region, String credentialsId, Callable<T> call) {
+        Bucket bucket = bucket(region + "/" + credentialsId);
+        for (int retry = 0; ; retry++) {
+            try {
+                bucket.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting to call EC2 in " + region, e);
+            }
+            try {
+                T result = call.call();
+                bucket.onSuccess();
+                return result;
+            } catch (RuntimeException e) {
+                if (!isThrottling(e)) {
+                    throw e;
+                }
+                THROTTLES.increment();
+                bucket.onThrottled();
+                if (retry == maxRetries) {
+                    throw e;
+                }
+                long backoff = backoff(retry);
+                LOGGER.info("EC2 throttled a call in " + region + ", retrying in " + backoff + "ms at " + String.format("%.1f", bucket.rate()) + " calls per second");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * The current rate of the region and credentials identity's bucket, in calls per second.
+     */
+    public double rate(String region, String credentialsId) {
+        return bucket(region + "/" + credentialsId).rate();
+    }
+
+    static boolean isThrottling(Throwable e) {
+        if (e instanceof AmazonServiceException) {
+            return RetryUtils.isThrottlingException((AmazonServiceException) e);
+        }
+        // dry runs report unexpected service errors, throttling included, as client exceptions
+        return e instanceof AmazonClientException && e.getCause() != null && isThrottling(e.getCause());
+    }
+
+    private long backoff(int retry) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(retry, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private Bucket bucket(String key) {
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            Bucket created = new Bucket(RateLimiter.create(maxRate));
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            }
+        }
+        return bucket;
+    }
+
+    private class Bucket {
+        private final RateLimiter rateLimiter;
+
+        private Bucket(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+        }
+
+        /**
+         * Waits for a permit like {@link RateLimiter#acquire()}, but giving up when the thread is interrupted.
+         */
+        private void acquire() throws InterruptedException {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (rateLimiter.tryAcquire(ACQUIRE_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                // tryAcquire does not wait when no permit frees up within the timeout
+                Thread.sleep(ACQUIRE_POLL_MILLIS);
+            }
+        }
+
+        private synchronized void onSuccess() {
+            double rate = rateLimiter.getRate();
+            if (rate < maxRate) {
+                rateLimiter.setRate(Math.min(maxRate, rate + ADDITIVE_INCREASE));
+            }
+        }
+
+        private synchronized void onThrottled() {
+            rateLimiter.setRate(Math.max(minRate, rateLimiter.getRate() * MULTIPLICATIVE_DECREASE));
+        }
+
+        private double rate() {
+            return rateLimiter.getRate();
+        }
+    }
+}
@@ -1,16 +1,228 @@
 package com.github.denuto.repository.services;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.regions.Regions;
-import com.amazonaws.services.ec2.AmazonEC2Client;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.thoughtworks.go.plugin.api.logging.Logger;
 
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of shared {@link AmazonEC2} clients, one per region and credentials identity.
+ * <p>
+ * Clients (and their keep-alive connection pools) are reused across requests, shut down once they
+ * have been idle for {@code ami.poller.client.idle.timeout.minutes} (default 30) and all released
+ * by {@link #shutdown()} when the plugin unloads. Their credentials come from the {@link CredentialsProviders}.
+ * <p>
+ * Connections time out after {@code ami.poller.ec2.connect.timeout.millis} (default 10000), reads after
+ * {@code ami.poller.ec2.read.timeout.millis} (default 30000), and a request as a whole, retries included, after
+ * {@code ami.poller.ec2.request.timeout.millis} (default 60000). Failed requests are retried up to
+ * {@code ami.poller.ec2.max.error.retries} (default 3) times, except throttled ones, which are not retried by the
+ * clients but by the {@link AdaptiveRateLimiter} pacing them. {@link QueryApiImageSource} retries with the same policy.
+ * <p>
+ * Each client keeps up to {@code ami.poller.ec2.max.connections} (default 50) connections open. Connections idle for
+ * {@code ami.poller.ec2.connection.max.idle.millis} (default 60000) are closed by a reaper thread, unless
+ * {@code ami.poller.ec2.idle.connection.reaper} is false, and none is reused once it is
+ * {@code ami.poller.ec2.connection.ttl.millis} old (default -1, no limit). {@code ami.poller.ec2.tcp.keep.alive}
+ * (default false) turns on TCP keep-alive and {@code ami.poller.ec2.gzip} (default false) asks for compressed
+ * responses. The defaults are those of the SDK; proxies are taken from the standard {@code https.proxyHost} and
+ * {@code https.proxyPort} system properties.
+ * <p>
+ * Setting {@code ami.poller.ec2.endpoint} points every client at that url instead of the region's EC2 endpoint, e.g.
+ * at a local stand-in for EC2 when load testing.
+ * <p>
+ * Images can be fetched either through these clients or, with {@code ami.poller.ec2.client=query}, by the streaming
+ * {@link QueryApiImageSource}; either way at a bounded concurrency, see {@link #newImageSource()}.
+ */
 public class AmazonEC2ClientFactory {
 
+    public static final String DEFAULT_CREDENTIALS_ID = "default";
+
+    private static final Logger LOGGER = Logger.getLoggerFor(AmazonEC2ClientFactory.class);
+    private static final long IDLE_TIMEOUT_MINUTES = Long.getLong("ami.poller.client.idle.timeout.minutes", 30);
+    private static final String ENDPOINT = System.getProperty("ami.poller.ec2.endpoint", "");
+    private static final RetryPolicy.RetryCondition RETRY_CONDITION = new RetryPolicy.RetryCondition() {
+        @Override
+        public boolean shouldRetry(AmazonWebServiceRequest originalRequest, AmazonClientException exception, int retriesAttempted) {
+            return !AdaptiveRateLimiter.isThrottling(exception)
+                    && PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(originalRequest, exception, retriesAttempted);
+        }
+    };
+
+    private static final Cache<ClientKey, AmazonEC2> CLIENTS = CacheBuilder.newBuilder()
+            .expireAfterAccess(IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+            .removalListener(new RemovalListener<ClientKey, AmazonEC2>() {
+                @Override
+                public void onRemoval(RemovalNotification<ClientKey, AmazonEC2> notification) {
+                    LOGGER.info("Shutting down EC2 client for " + notification.getKey() + " (" + notification.getCause() + ")");
+                    notification.getValue().shutdown();
+                }
+            })
+            .build();
+
+    private static ScheduledExecutorService idleClientReaper;
+
     private AmazonEC2ClientFactory() {
     }
 
-    public static AmazonEC2Client newInstance(String region) {
-        AmazonEC2Client amazonEC2Client = new AmazonEC2Client();
-        amazonEC2Client.withRegion(Regions.fromName(region));
-        return amazonEC2Client;
+    /**
+     * Returns the shared client for the region, authenticated through the default credentials provider chain.
+     */
+    public static AmazonEC2 newInstance(String region) {
+        return newInstance(region, DEFAULT_CREDENTIALS_ID, CredentialsProviders.defaultProvider());
+    }
+
+    /**
+     * Returns the shared client for the region and credentials identity, creating it on first use.
+     */
+    public static AmazonEC2 newInstance(final String region, String credentialsId, final AWSCredentialsProvider credentialsProvider) {
+        startIdleClientReaper();
+        try {
+            return CLIENTS.get(new ClientKey(region, credentialsId), new Callable<AmazonEC2>() {
+                @Override
+                public AmazonEC2 call() throws Exception {
+                    AmazonEC2ClientBuilder builder = AmazonEC2ClientBuilder.standard()
+                            .withCredentials(credentialsProvider)
+                            .withClientConfiguration(clientConfiguration());
+                    if (ENDPOINT.isEmpty()) {
+                        builder.withRegion(Regions.fromName(region));
+                    } else {
+                        builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(ENDPOINT, region));
+                    }
+                    return builder.build();
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalArgumentException("Unable to create EC2 client for region " + region, e.getCause());
+        }
+    }
+
+    /**
+     * The configuration of every EC2 client: the configured retries, timeouts, connection pool and compression.
+     */
+    public static ClientConfiguration clientConfiguration() {
+        return clientConfiguration(System.getProperties());
+    }
+
+    static ClientConfiguration clientConfiguration(Properties properties) {
+        int maxErrorRetries = Integer.parseInt(properties.getProperty("ami.poller.ec2.max.error.retries", String.valueOf(PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY)));
+        return new ClientConfiguration()
+                .withRetryPolicy(new RetryPolicy(RETRY_CONDITION, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, maxErrorRetries, true))
+                .withConnectionTimeout(Integer.parseInt(properties.getProperty("ami.poller.ec2.connect.timeout.millis", "10000")))
+                .withSocketTimeout(Integer.parseInt(properties.getProperty("ami.poller.ec2.read.timeout.millis", "30000")))
+                .withClientExecutionTimeout(Integer.parseInt(properties.getProperty("ami.poller.ec2.request.timeout.millis", "60000")))
+                .withMaxConnections(Integer.parseInt(properties.getProperty("ami.poller.ec2.max.connections", String.valueOf(ClientConfiguration.DEFAULT_MAX_CONNECTIONS))))
+                .withConnectionMaxIdleMillis(Long.parseLong(properties.getProperty("ami.poller.ec2.connection.max.idle.millis", String.valueOf(ClientConfiguration.DEFAULT_CONNECTION_MAX_IDLE_MILLIS))))
+                .withConnectionTTL(Long.parseLong(properties.getProperty("ami.poller.ec2.connection.ttl.millis", String.valueOf(ClientConfiguration.DEFAULT_CONNECTION_TTL))))
+                .withReaper(Boolean.parseBoolean(properties.getProperty("ami.poller.ec2.idle.connection.reaper", String.valueOf(ClientConfiguration.DEFAULT_USE_REAPER))))
+                .withTcpKeepAlive(Boolean.parseBoolean(properties.getProperty("ami.poller.ec2.tcp.keep.alive", String.valueOf(ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE))))
+                .withGzip(Boolean.parseBoolean(properties.getProperty("ami.poller.ec2.gzip", String.valueOf(ClientConfiguration.DEFAULT_USE_GZIP))));
+    }
+
+    /**
+     * The url set by {@code ami.poller.ec2.endpoint} to call EC2 at in every region, or null to call each region's own
+     * endpoint.
+     */
+    public static URI endpointOverride() {
+        return ENDPOINT.isEmpty() ? null : URI.create(ENDPOINT.endsWith("/") ? ENDPOINT : ENDPOINT + "/");
+    }
+
+    /**
+     * The image source selected by {@code ami.poller.ec2.client}: {@code sdk} (the default) pages through the SDK
+     * clients above, {@code query} calls the EC2 Query API directly and parses responses as they stream in. Either
+     * is wrapped in a {@link BoundedImageSource}, bounding the number of concurrent calls and their duration.
+     */
+    public static ImageSource newImageSource() {
+        String client = System.getProperty("ami.poller.ec2.client", "sdk");
+        ImageSource imageSource;
+        if (client.equals("query")) {
+            imageSource = QueryApiImageSource.fromSystemProperties();
+        } else {
+            if (!client.equals("sdk")) {
+                LOGGER.warn("Unknown ami.poller.ec2.client " + client + ", using the SDK client");
+            }
+            imageSource = SdkImageSource.fromSystemProperties();
+        }
+        return BoundedImageSource.fromSystemProperties(imageSource);
+    }
+
+    /**
+     * Shuts down every shared client. Clients requested afterwards are created afresh.
+     */
+    public static synchronized void shutdown() {
+        if (idleClientReaper != null) {
+            idleClientReaper.shutdownNow();
+            idleClientReaper = null;
+        }
+        CLIENTS.invalidateAll();
+        CLIENTS.cleanUp();
+    }
+
+    private static synchronized void startIdleClientReaper() {
+        if (idleClientReaper != null) {
+            return;
+        }
+        idleClientReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ami-poller-client-reaper-%d")
+                .setDaemon(true)
+                .build());
+        idleClientReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                CLIENTS.cleanUp();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    private static class ClientKey {
+        private final String region;
+        private final String credentialsId;
+
+        private ClientKey(String region, String credentialsId) {
+            this.region = region;
+            this.credentialsId = credentialsId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            ClientKey that = (ClientKey) o;
+            return region.equals(that.region) && credentialsId.equals(that.credentialsId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * region.hashCode() + credentialsId.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return region + "/" + credentialsId;
+        }
     }
 }
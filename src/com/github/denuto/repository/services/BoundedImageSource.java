@@ -0,0 +1,184 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.metrics.LatencyHistogram;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the scans of another image source on a pool of EC2 call threads, at most {@code ami.poller.ec2.max.concurrent.calls}
+ * (default 8) at a time, and gives up on a scan that has not finished within {@code ami.poller.ec2.call.timeout.seconds}
+ * (default 120), time spent waiting for a free call slot included.
+ * <p>
+ * A scan that times out, or whose caller is interrupted, is cancelled: its thread is interrupted and it stops paging
+ * before the next image is visited, so a hanging regional endpoint holds a polling thread for at most the call timeout.
+ * The cancelled scan keeps its call slot until its thread has actually stopped, so no more scans run against EC2 than
+ * there are slots; the connect and read timeouts of the underlying client bound how long that can take, while waiting
+ * for the {@link AdaptiveRateLimiter} ends as soon as the thread is interrupted.
+ */
+public class BoundedImageSource implements ImageSource {
+
+    private static final LatencyHistogram SCAN_LATENCY = PluginMetrics.shared().histogram("ec2.scans");
+    private static final LongAdder SCANNED_IMAGES = PluginMetrics.shared().counter("ec2.scans.images");
+    private static final LongAdder SCAN_ERRORS = PluginMetrics.shared().counter("ec2.scans.errors");
+    private static final LongAdder SCAN_TIMEOUTS = PluginMetrics.shared().counter("ec2.scans.timeouts");
+
+    private static ExecutorService executor;
+
+    private final ImageSource imageSource;
+    private final int maxConcurrentCalls;
+    private final long callTimeoutMillis;
+    private final Semaphore callSlots;
+
+    public BoundedImageSource(ImageSource imageSource, int maxConcurrentCalls, long callTimeoutMillis) {
+        this.imageSource = imageSource;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.callTimeoutMillis = callTimeoutMillis;
+        this.callSlots = new Semaphore(maxConcurrentCalls, true);
+        PluginMetrics.shared().gauge("ec2.scans.in-flight", new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                return BoundedImageSource.this.maxConcurrentCalls - callSlots.availablePermits();
+            }
+        });
+    }
+
+    public static BoundedImageSource fromSystemProperties(ImageSource imageSource) {
+        return new BoundedImageSource(imageSource,
+                Integer.getInteger("ami.poller.ec2.max.concurrent.calls", 8),
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.ec2.call.timeout.seconds", 120)));
+    }
+
+    @Override
+    public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+        scan(imageQuery, Integer.MAX_VALUE, visitor);
+    }
+
+    @Override
+    public void scan(final ImageQuery imageQuery, final int firstPageSize, final ImageVisitor visitor) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(callTimeoutMillis);
+        try {
+            if (!callSlots.tryAcquire(callTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                SCAN_TIMEOUTS.increment();
+                throw new CallTimeoutException("Timed out after " + callTimeoutMillis + "ms waiting for one of "
+                        + maxConcurrentCalls + " EC2 call slots to fetch " + imageQuery);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for an EC2 call slot to fetch " + imageQuery, e);
+        }
+
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final FutureTask<Void> call = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                imageSource.scan(imageQuery, firstPageSize, new ImageVisitor() {
+                    @Override
+                    public boolean visit(Image image) {
+                        if (cancelled.get()) {
+                            return false;
+                        }
+                        SCANNED_IMAGES.increment();
+                        return visitor.visit(image);
+                    }
+
+                    @Override
+                    public boolean wants(long creationMillis) {
+                        if (visitor.wants(creationMillis)) {
+                            return true;
+                        }
+                        SCANNED_IMAGES.increment();
+                        return false;
+                    }
+                });
+            }
+        }, null);
+        try {
+            executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        call.run();
+                    } finally {
+                        callSlots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callSlots.release();
+            throw new IllegalStateException("Unable to fetch " + imageQuery, e);
+        }
+
+        try {
+            call.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            SCAN_TIMEOUTS.increment();
+            cancel(call, cancelled);
+            throw new CallTimeoutException("Timed out after " + callTimeoutMillis + "ms fetching " + imageQuery);
+        } catch (InterruptedException e) {
+            cancel(call, cancelled);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted fetching " + imageQuery, e);
+        } catch (ExecutionException e) {
+            SCAN_ERRORS.increment();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Unable to fetch " + imageQuery, e.getCause());
+        } finally {
+            SCAN_LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * Interrupts the scans in flight and stops their threads, when the plugin unloads. Scans started afterwards run on
+     * new threads.
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setNameFormat("ami-poller-ec2-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return executor;
+    }
+
+    /**
+     * A scan that did not finish within the call timeout, waiting for a call slot included.
+     */
+    public static class CallTimeoutException extends IllegalStateException {
+        public CallTimeoutException(String message) {
+            super(message);
+        }
+    }
+
+    private static void cancel(FutureTask<Void> call, AtomicBoolean cancelled) {
+        cancelled.set(true);
+        call.cancel(true);
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.ConnectionCheck;
+import com.google.common.base.Ticker;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers how checking the connection to a region with a credentials identity went, as Go checks repository
+ * connections over and over while their configuration is edited and when the server starts.
+ * <p>
+ * A successful check is reused for {@code ami.poller.connection.check.ttl.seconds} (default 60). A failed one is reused
+ * for {@code ami.poller.connection.check.failure.backoff.seconds} (default 5), doubled after every further failure in a
+ * row up to {@code ami.poller.connection.check.max.backoff.seconds} (default 60): a region that cannot be reached is not
+ * checked against on every request, while one that was fixed is seen to work again soon. A TTL of 0 disables caching.
+ * <p>
+ * Concurrent checks of the same region and credentials identity share a single check. A check that throws counts as
+ * failed, with the exception's message as the reason.
+ */
+public class ConnectionCheckCache {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(ConnectionCheckCache.class);
+    private static final LongAdder CACHED_CHECKS = PluginMetrics.shared().counter("connection-checks.cached");
+    private static final LongAdder FAILED_CHECKS = PluginMetrics.shared().counter("connection-checks.failed");
+
+    private final long ttlNanos;
+    private final long failureBackoffNanos;
+    private final long maxFailureBackoffNanos;
+    private final Ticker ticker;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final SingleFlight<String, ConnectionCheck> checks = new SingleFlight<>();
+
+    public ConnectionCheckCache(long ttlMillis, long failureBackoffMillis, long maxFailureBackoffMillis, Ticker ticker) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.failureBackoffNanos = TimeUnit.MILLISECONDS.toNanos(failureBackoffMillis);
+        this.maxFailureBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxFailureBackoffMillis);
+        this.ticker = ticker;
+    }
+
+    public static ConnectionCheckCache fromSystemProperties() {
+        return new ConnectionCheckCache(
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.connection.check.ttl.seconds", 60)),
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.connection.check.failure.backoff.seconds", 5)),
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.connection.check.max.backoff.seconds", 60)),
+                Ticker.systemTicker());
+    }
+
+    /**
+     * The outcome of the last check of the region with the credentials identity while it is live, otherwise of a new
+     * check.
+     */
+    public ConnectionCheck get(final String region, String credentialsId, final Callable<ConnectionCheck> check) {
+        final String key = region + "/" + credentialsId;
+        Entry entry = entries.get(key);
+        if (entry != null && ticker.read() - entry.expiresAtNanos < 0) {
+            CACHED_CHECKS.increment();
+            return entry.check;
+        }
+        return checks.execute(key, new Callable<ConnectionCheck>() {
+            @Override
+            public ConnectionCheck call() throws Exception {
+                ConnectionCheck outcome;
+                try {
+                    outcome = check.call();
+                } catch (Exception e) {
+                    LOGGER.warn("Unable to check the connection to " + key, e);
+                    outcome = ConnectionCheck.failed("Unable to connect to " + region + ": " + e.getMessage());
+                }
+                remember(key, outcome);
+                return outcome;
+            }
+        });
+    }
+
+    private void remember(String key, ConnectionCheck outcome) {
+        if (outcome.isSuccessful()) {
+            entries.put(key, new Entry(outcome, 0, ticker.read() + ttlNanos));
+            return;
+        }
+        FAILED_CHECKS.increment();
+        Entry previous = entries.get(key);
+        int consecutiveFailures = previous == null ? 1 : previous.consecutiveFailures + 1;
+        long backoffNanos = ttlNanos == 0 ? 0 : failureBackoffNanos;
+        for (int failure = 1; failure < consecutiveFailures && backoffNanos < maxFailureBackoffNanos; failure++) {
+            backoffNanos *= 2;
+        }
+        entries.put(key, new Entry(outcome, consecutiveFailures, ticker.read() + Math.min(maxFailureBackoffNanos, backoffNanos)));
+    }
+
+    private static class Entry {
+        private final ConnectionCheck check;
+        private final int consecutiveFailures;
+        private final long expiresAtNanos;
+
+        private Entry(ConnectionCheck check, int consecutiveFailures, long expiresAtNanos) {
+            this.check = check;
+            this.consecutiveFailures = consecutiveFailures;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.auth.STSAssumeRoleSessionCredentialsProvider;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenService;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClientBuilder;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the credentials EC2 calls are signed with: the default credentials provider chain, or a session of an
+ * IAM role that a repository configuration asks to assume.
+ * <p>
+ * The default chain is walked at most once every {@code ami.poller.credentials.refresh.minutes} (default 5), in the
+ * background, see {@link RefreshingCredentialsProvider}. Role sessions last {@code ami.poller.role.session.seconds}
+ * (default 3600), are assumed with the default credentials and are shared by every package of every repository
+ * assuming the role. They are renewed in the background in the last five minutes before they expire and closed once
+ * they have not been used for {@code ami.poller.client.idle.timeout.minutes} (default 30), like the EC2 clients.
+ */
+public class CredentialsProviders {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(CredentialsProviders.class);
+    private static final long REFRESH_MINUTES = Long.getLong("ami.poller.credentials.refresh.minutes", 5);
+    private static final int ROLE_SESSION_SECONDS = Integer.getInteger("ami.poller.role.session.seconds", 3600);
+    private static final long IDLE_TIMEOUT_MINUTES = Long.getLong("ami.poller.client.idle.timeout.minutes", 30);
+    private static final String ROLE_SESSION_NAME = "ami-poller";
+
+    private static final Cache<String, STSAssumeRoleSessionCredentialsProvider> ROLE_SESSIONS = CacheBuilder.newBuilder()
+            .expireAfterAccess(IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES)
+            .removalListener(new RemovalListener<String, STSAssumeRoleSessionCredentialsProvider>() {
+                @Override
+                public void onRemoval(RemovalNotification<String, STSAssumeRoleSessionCredentialsProvider> notification) {
+                    LOGGER.info("Closing session of role " + notification.getKey() + " (" + notification.getCause() + ")");
+                    notification.getValue().close();
+                }
+            })
+            .build();
+
+    private static ExecutorService refresher;
+    private static AWSCredentialsProvider defaultProvider;
+    private static AWSSecurityTokenService stsClient;
+
+    private CredentialsProviders() {
+    }
+
+    /**
+     * The identity credentials are shared under, as used to key EC2 clients and rate limits: the role's ARN, or
+     * {@link AmazonEC2ClientFactory#DEFAULT_CREDENTIALS_ID} when no role is assumed.
+     */
+    public static String credentialsId(String roleArn) {
+        return roleArn == null ? AmazonEC2ClientFactory.DEFAULT_CREDENTIALS_ID : roleArn;
+    }
+
+    /**
+     * The credentials of the role, or the default ones when the role is null.
+     */
+    public static AWSCredentialsProvider forRole(String roleArn) {
+        return roleArn == null ? defaultProvider() : assumeRole(roleArn);
+    }
+
+    /**
+     * The default credentials provider chain, refreshed ahead in the background.
+     */
+    public static synchronized AWSCredentialsProvider defaultProvider() {
+        if (defaultProvider == null) {
+            defaultProvider = new RefreshingCredentialsProvider(new DefaultAWSCredentialsProviderChain(),
+                    TimeUnit.MINUTES.toMillis(REFRESH_MINUTES), refresher(), Ticker.systemTicker());
+        }
+        return defaultProvider;
+    }
+
+    /**
+     * The shared session of the role, assumed on first use.
+     */
+    public static AWSCredentialsProvider assumeRole(final String roleArn) {
+        try {
+            return ROLE_SESSIONS.get(roleArn, new Callable<STSAssumeRoleSessionCredentialsProvider>() {
+                @Override
+                public STSAssumeRoleSessionCredentialsProvider call() throws Exception {
+                    LOGGER.info("Assuming role " + roleArn);
+                    return new STSAssumeRoleSessionCredentialsProvider.Builder(roleArn, ROLE_SESSION_NAME)
+                            .withStsClient(stsClient())
+                            .withRoleSessionDurationSeconds(ROLE_SESSION_SECONDS)
+                            .withAsyncRefreshExecutor(refresher())
+                            .build();
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw new IllegalArgumentException("Unable to assume role " + roleArn, e.getCause());
+        }
+    }
+
+    /**
+     * Closes every role session and stops refreshing credentials. Credentials requested afterwards are loaded afresh.
+     */
+    public static synchronized void shutdown() {
+        ROLE_SESSIONS.invalidateAll();
+        ROLE_SESSIONS.cleanUp();
+        if (stsClient != null) {
+            stsClient.shutdown();
+            stsClient = null;
+        }
+        defaultProvider = null;
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    /**
+     * The STS client every role is assumed with, signing with the default credentials. Sessions do not shut down the
+     * client they were given, so a single one is shared and shut down with the sessions.
+     */
+    private static synchronized AWSSecurityTokenService stsClient() {
+        if (stsClient == null) {
+            stsClient = AWSSecurityTokenServiceClientBuilder.standard()
+                    .withCredentials(defaultProvider())
+                    .withClientConfiguration(AmazonEC2ClientFactory.clientConfiguration()
+                            .withRetryPolicy(PredefinedRetryPolicies.DEFAULT))
+                    // STS is global: us-east-1 resolves to its global endpoint, as the session provider's own client did
+                    .withRegion(Regions.US_EAST_1)
+                    .build();
+        }
+        return stsClient;
+    }
+
+    private static synchronized ExecutorService refresher() {
+        if (refresher == null) {
+            refresher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("ami-poller-credentials-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return refresher;
+    }
+}
@@ -0,0 +1,232 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageRecord;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for EC2 Query API DescribeImages responses.
+ * <p>
+ * Only the image fields the plugin reads are materialized; block device mappings, product codes, state reasons and the
+ * like are skipped without being built. Images created at an instant the visitor does not {@link ImageVisitor#wants
+ * want} are skipped as soon as their creation date is read, before their tags are built. Each other image is handed to
+ * the visitor as soon as its element closes, so a page is never held in memory as a whole.
+ */
+class DescribeImagesResponseParser {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = newXmlInputFactory();
+
+    private String nextToken;
+    private boolean stopped;
+
+    /**
+     * Parses one response page, returning the token of the next page, or null when there are no more pages or the
+     * visitor asked to stop.
+     */
+    static String parse(InputStream inputStream, ImageVisitor visitor) {
+        DescribeImagesResponseParser parser = new DescribeImagesResponseParser();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream, "UTF-8");
+            parser.parseResponse(reader, visitor);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Unable to parse DescribeImages response", e);
+        } finally {
+            close(reader);
+        }
+        if (parser.stopped || parser.nextToken == null || parser.nextToken.isEmpty()) {
+            return null;
+        }
+        return parser.nextToken;
+    }
+
+    /**
+     * Turns an EC2 error response (which may have no body) into the exception the SDK client would have thrown for it.
+     */
+    static AmazonServiceException parseError(InputStream inputStream, int statusCode) {
+        String code = null;
+        String message = null;
+        String requestId = null;
+        XMLStreamReader reader = null;
+        try {
+            if (inputStream == null) {
+                throw new XMLStreamException("Empty error response");
+            }
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream, "UTF-8");
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String element = reader.getLocalName();
+                if (element.equals("Code") && code == null) {
+                    code = reader.getElementText();
+                } else if (element.equals("Message") && message == null) {
+                    message = reader.getElementText();
+                } else if (element.equals("RequestID") || element.equals("RequestId")) {
+                    requestId = reader.getElementText();
+                }
+            }
+        } catch (XMLStreamException e) {
+            message = "Unparseable error response";
+        } finally {
+            close(reader);
+        }
+        AmazonServiceException exception = new AmazonServiceException(message == null ? "DescribeImages failed" : message);
+        exception.setErrorCode(code);
+        exception.setRequestId(requestId);
+        exception.setStatusCode(statusCode);
+        exception.setServiceName("AmazonEC2");
+        exception.setErrorType(statusCode >= 500 ? AmazonServiceException.ErrorType.Service : AmazonServiceException.ErrorType.Client);
+        return exception;
+    }
+
+    private void parseResponse(XMLStreamReader reader, ImageVisitor visitor) throws XMLStreamException {
+        reader.nextTag();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            if (element.equals("imagesSet")) {
+                parseImages(reader, visitor);
+                if (stopped) {
+                    return;
+                }
+            } else if (element.equals("nextToken")) {
+                nextToken = reader.getElementText();
+            } else {
+                skipElement(reader);
+            }
+        }
+    }
+
+    private void parseImages(XMLStreamReader reader, ImageVisitor visitor) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            Image image = parseImage(reader, visitor);
+            if (image != null && !visitor.visit(image)) {
+                stopped = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * The image the reader is positioned on, or null when the visitor does not want it.
+     */
+    private Image parseImage(XMLStreamReader reader, ImageVisitor visitor) throws XMLStreamException {
+        Image image = new Image();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            switch (element) {
+                case "imageId":
+                    image.setImageId(reader.getElementText());
+                    break;
+                case "name":
+                    image.setName(reader.getElementText());
+                    break;
+                case "description":
+                    image.setDescription(reader.getElementText());
+                    break;
+                case "creationDate":
+                    image.setCreationDate(reader.getElementText());
+                    if (!visitor.wants(ImageRecord.creationMillis(image.getCreationDate()))) {
+                        skipRemainingElements(reader);
+                        return null;
+                    }
+                    break;
+                case "imageOwnerId":
+                    image.setOwnerId(reader.getElementText());
+                    break;
+                case "imageOwnerAlias":
+                    image.setImageOwnerAlias(reader.getElementText());
+                    break;
+                case "imageState":
+                    image.setState(reader.getElementText());
+                    break;
+                case "architecture":
+                    image.setArchitecture(reader.getElementText());
+                    break;
+                case "rootDeviceType":
+                    image.setRootDeviceType(reader.getElementText());
+                    break;
+                case "virtualizationType":
+                    image.setVirtualizationType(reader.getElementText());
+                    break;
+                case "tagSet":
+                    image.setTags(parseTags(reader));
+                    break;
+                default:
+                    skipElement(reader);
+            }
+        }
+        return image;
+    }
+
+    private List<Tag> parseTags(XMLStreamReader reader) throws XMLStreamException {
+        List<Tag> tags = new ArrayList<>();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String key = null;
+            String value = null;
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                String element = reader.getLocalName();
+                if (element.equals("key")) {
+                    key = reader.getElementText();
+                } else if (element.equals("value")) {
+                    value = reader.getElementText();
+                } else {
+                    skipElement(reader);
+                }
+            }
+            tags.add(new Tag(key, value));
+        }
+        return tags;
+    }
+
+    /**
+     * Skips the rest of the element the reader is in, leaving the reader on its end tag.
+     */
+    private static void skipRemainingElements(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            skipElement(reader);
+        }
+    }
+
+    /**
+     * Skips the element the reader is positioned on, leaving the reader on its end tag.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static void close(XMLStreamReader reader) {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+        } catch (XMLStreamException ignored) {
+        }
+    }
+
+    private static XMLInputFactory newXmlInputFactory() {
+        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return xmlInputFactory;
+    }
+}
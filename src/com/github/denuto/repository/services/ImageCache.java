@@ -0,0 +1,107 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, time-limited cache of DescribeImages results keyed by {@link ImageQuery}.
+ * <p>
+ * Entries expire {@code ami.poller.cache.ttl.seconds} (default 30) after they were fetched, and the cache holds at most
+ * {@code ami.poller.cache.max.images} (default 50000) images in total. A TTL of 0 disables caching. A single result
+ * holding more images than that is never cached, which is logged as a warning.
+ */
+public class ImageCache {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(ImageCache.class);
+
+    private final long maximumImages;
+    private final Cache<ImageQuery, ImageTimeline> cache;
+
+    public ImageCache(long ttlSeconds, long maximumImages) {
+        this(ttlSeconds, maximumImages, Ticker.systemTicker());
+    }
+
+    public ImageCache(long ttlSeconds, long maximumImages, Ticker ticker) {
+        this.maximumImages = maximumImages;
+        this.cache = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                // a single segment, so that the whole weight is available to one large result
+                .concurrencyLevel(1)
+                .maximumWeight(maximumImages)
+                .weigher(new Weigher<ImageQuery, ImageTimeline>() {
+                    @Override
+                    public int weigh(ImageQuery key, ImageTimeline images) {
+                        return images.size() + 1;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public static ImageCache fromSystemProperties() {
+        return new ImageCache(
+                Long.getLong("ami.poller.cache.ttl.seconds", 30),
+                Long.getLong("ami.poller.cache.max.images", 50000));
+    }
+
+    /**
+     * Returns the cached images for the query, calling the loader when there is no live entry.
+     * Exceptions thrown by the loader are rethrown unwrapped and are not cached.
+     */
+    public ImageTimeline get(final ImageQuery imageQuery, final Callable<ImageTimeline> loader) {
+        try {
+            return cache.get(imageQuery, new Callable<ImageTimeline>() {
+                @Override
+                public ImageTimeline call() throws Exception {
+                    LOGGER.debug("Image cache miss for " + imageQuery);
+                    ImageTimeline images = loader.call();
+                    if (images.size() + 1 > maximumImages) {
+                        LOGGER.warn("Not caching the " + images.size() + " images of " + imageQuery + ", more than the "
+                                + maximumImages + " the cache holds");
+                    }
+                    return images;
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to describe images for " + imageQuery, e.getCause());
+        }
+    }
+
+    /**
+     * The cached images for the query, or null when there is no live entry.
+     */
+    public ImageTimeline getIfPresent(ImageQuery imageQuery) {
+        return cache.getIfPresent(imageQuery);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Registers the hits, misses, evictions and size of the cache as gauges under the given name.
+     */
+    public void exportTo(PluginMetrics metrics, String name) {
+        metrics.cacheGauges(name, cache);
+    }
+}
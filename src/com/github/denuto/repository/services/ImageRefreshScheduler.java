@@ -0,0 +1,194 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a snapshot of the images of every query the plugin has been asked about, refreshed in the background every
+ * {@code ami.poller.refresh.interval.seconds} (default 50, a little ahead of Go's one minute material poll), so that
+ * handlers can answer without waiting on EC2.
+ * <p>
+ * Queries that have not been asked about for {@code ami.poller.refresh.idle.minutes} (default 10) stop being refreshed,
+ * and snapshots that could not be refreshed for three intervals are no longer handed out. An interval of 0 disables
+ * background refreshing. A query is tracked with the images it was answered with, as old as they are: images from a
+ * cache or a restored snapshot are refreshed on the next tick once they are an interval old.
+ */
+public class ImageRefreshScheduler {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(ImageRefreshScheduler.class);
+    private static final int MAX_MISSED_REFRESHES = 3;
+
+    private final long refreshIntervalMillis;
+    private final long idleMillis;
+    private final int refreshThreads;
+    private final Ticker clock;
+    private final ConcurrentMap<ImageQuery, TrackedQuery> trackedQueries = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService ticker;
+    private ExecutorService refresher;
+
+    public ImageRefreshScheduler(long refreshIntervalMillis, long idleMillis, int refreshThreads, Ticker clock) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.idleMillis = idleMillis;
+        this.refreshThreads = refreshThreads;
+        this.clock = clock;
+    }
+
+    public static ImageRefreshScheduler fromSystemProperties() {
+        return new ImageRefreshScheduler(
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.refresh.interval.seconds", 50)),
+                TimeUnit.MINUTES.toMillis(Long.getLong("ami.poller.refresh.idle.minutes", 10)),
+                Integer.getInteger("ami.poller.refresh.threads", 4),
+                Ticker.systemTicker());
+    }
+
+    public synchronized void start() {
+        if (ticker != null || refreshIntervalMillis <= 0) {
+            return;
+        }
+        refresher = Executors.newFixedThreadPool(refreshThreads, new ThreadFactoryBuilder()
+                .setNameFormat("ami-poller-refresh-%d")
+                .setDaemon(true)
+                .build());
+        ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ami-poller-refresh-ticker-%d")
+                .setDaemon(true)
+                .build());
+        long tickMillis = Math.max(1000, refreshIntervalMillis / 10);
+        ticker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshDueQueries();
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Background image refresh started, refreshing every " + refreshIntervalMillis + "ms");
+    }
+
+    public synchronized void stop() {
+        if (ticker == null) {
+            return;
+        }
+        ticker.shutdownNow();
+        refresher.shutdownNow();
+        ticker = null;
+        refresher = null;
+        trackedQueries.clear();
+    }
+
+    public synchronized boolean isRunning() {
+        return ticker != null;
+    }
+
+    /**
+     * The latest snapshot for the query, or null when the query is not tracked or its snapshot is too old to use.
+     */
+    public ImageTimeline snapshot(ImageQuery imageQuery) {
+        return snapshot(imageQuery, true);
+    }
+
+    /**
+     * Like {@link #snapshot(ImageQuery)}, but without keeping the query from going idle.
+     */
+    public ImageTimeline peek(ImageQuery imageQuery) {
+        return snapshot(imageQuery, false);
+    }
+
+    private ImageTimeline snapshot(ImageQuery imageQuery, boolean requested) {
+        TrackedQuery trackedQuery = trackedQueries.get(imageQuery);
+        if (trackedQuery == null) {
+            return null;
+        }
+        long now = nowMillis();
+        if (requested) {
+            trackedQuery.lastRequestedMillis = now;
+        }
+        if (now - trackedQuery.refreshedMillis > MAX_MISSED_REFRESHES * refreshIntervalMillis) {
+            return null;
+        }
+        return trackedQuery.images;
+    }
+
+    /**
+     * Starts refreshing the query with the loader in the background, seeded with the images it was answered with and
+     * dated by when those were fetched. Does nothing while the scheduler is not running.
+     */
+    public void track(ImageQuery imageQuery, Callable<ImageTimeline> loader, ImageTimeline images) {
+        if (!isRunning()) {
+            return;
+        }
+        long now = nowMillis();
+        long ageMillis = Math.max(0, System.currentTimeMillis() - images.fetchedMillis());
+        TrackedQuery trackedQuery = new TrackedQuery(loader, now);
+        trackedQuery.update(images, now - ageMillis);
+        TrackedQuery existing = trackedQueries.putIfAbsent(imageQuery, trackedQuery);
+        if (existing != null) {
+            existing.lastRequestedMillis = now;
+        }
+    }
+
+    void refreshDueQueries() {
+        long now = nowMillis();
+        Iterator<Map.Entry<ImageQuery, TrackedQuery>> iterator = trackedQueries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<ImageQuery, TrackedQuery> entry = iterator.next();
+            final TrackedQuery trackedQuery = entry.getValue();
+            if (now - trackedQuery.lastRequestedMillis > idleMillis) {
+                LOGGER.debug("No longer refreshing idle " + entry.getKey());
+                iterator.remove();
+            } else if (now - trackedQuery.attemptedMillis >= refreshIntervalMillis && trackedQuery.refreshing.compareAndSet(false, true)) {
+                trackedQuery.attemptedMillis = now;
+                refresher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ImageTimeline images = trackedQuery.loader.call();
+                            trackedQuery.update(images, nowMillis());
+                        } catch (Exception e) {
+                            LOGGER.warn("Unable to refresh " + entry.getKey() + ", keeping previous snapshot", e);
+                        } finally {
+                            trackedQuery.refreshing.set(false);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private long nowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(clock.read());
+    }
+
+    private static class TrackedQuery {
+        private final Callable<ImageTimeline> loader;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile ImageTimeline images;
+        private volatile long refreshedMillis;
+        private volatile long attemptedMillis;
+        private volatile long lastRequestedMillis;
+
+        private TrackedQuery(Callable<ImageTimeline> loader, long trackedMillis) {
+            this.loader = loader;
+            this.lastRequestedMillis = trackedMillis;
+        }
+
+        private void update(ImageTimeline images, long fetchedMillis) {
+            this.images = images;
+            this.refreshedMillis = fetchedMillis;
+            this.attemptedMillis = fetchedMillis;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.metrics.LatencyHistogram;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.CreationDateWindow;
+import com.github.denuto.repository.models.ImageCandidates;
+import com.github.denuto.repository.models.ImageProbe;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageRecord;
+import com.github.denuto.repository.models.ImageTimeline;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers image queries for the plugin, either with a (cached) DescribeImages call of their own or, in catalogue mode,
+ * by filtering a region-wide catalogue of the images owned by a set of accounts locally.
+ * <p>
+ * Results are read page by page and only the {@code ami.poller.fetch.retained.images} (default 100) most recent
+ * images of a query are kept, so memory does not grow with the number of matching images. Catalogues are kept whole.
+ * <p>
+ * The catalogue is refreshed at most once every {@code ami.poller.catalogue.ttl.seconds} (default 60) per region and
+ * owners, and holds at most {@code ami.poller.catalogue.max.images} (default 200000) images.
+ * <p>
+ * Connection checks only need to know whether a query matches any image: they are answered from whatever already
+ * holds the query's images and otherwise by {@link #probeImages probing} EC2 with small pages until the first match.
+ * <p>
+ * Every fetched result is also written to the {@link ImageSnapshotStore}, when one is configured. After a restart each
+ * restored query is answered from disk once and then refreshed like any other. Queries narrowed to a
+ * {@link CreationDateWindow} are neither written nor refreshed in the background.
+ */
+public class ImageService {
+
+    private static final LatencyHistogram SELECTION_LATENCY = PluginMetrics.shared().histogram("image-selection");
+    private static final LongAdder CACHED_PROBES = PluginMetrics.shared().counter("image-probes.cached");
+    private static final LongAdder SCANNED_PROBES = PluginMetrics.shared().counter("image-probes.scanned");
+    // the smallest page DescribeImages accepts
+    private static final int PROBE_PAGE_SIZE = 5;
+
+    private final ImageSource imageSource;
+    private final int retainedImages;
+    private final ImageCache imageCache;
+    private final ImageCache catalogueCache;
+    private final ImageRefreshScheduler refreshScheduler;
+    private final ImageSnapshotStore snapshotStore;
+    private final ConcurrentMap<ImageQuery, ImageTimeline> restoredImages = new ConcurrentHashMap<>();
+    // background refreshes load outside the caches, so a refresh and a cache miss for the same query share one scan
+    private final SingleFlight<ImageQuery, ImageTimeline> describeImageFlights = new SingleFlight<>();
+
+    public ImageService(ImageSource imageSource, int retainedImages, ImageCache imageCache, ImageCache catalogueCache, ImageRefreshScheduler refreshScheduler, ImageSnapshotStore snapshotStore) {
+        this.imageSource = imageSource;
+        this.retainedImages = retainedImages;
+        this.imageCache = imageCache;
+        this.catalogueCache = catalogueCache;
+        this.refreshScheduler = refreshScheduler;
+        this.snapshotStore = snapshotStore;
+        imageCache.exportTo(PluginMetrics.shared(), "cache.images");
+        catalogueCache.exportTo(PluginMetrics.shared(), "cache.catalogue");
+    }
+
+    public static ImageService fromSystemProperties() {
+        return new ImageService(
+                AmazonEC2ClientFactory.newImageSource(),
+                Integer.getInteger("ami.poller.fetch.retained.images", 100),
+                ImageCache.fromSystemProperties(),
+                new ImageCache(
+                        Long.getLong("ami.poller.catalogue.ttl.seconds", 60),
+                        Long.getLong("ami.poller.catalogue.max.images", 200000)),
+                ImageRefreshScheduler.fromSystemProperties(),
+                ImageSnapshotStore.fromSystemProperties());
+    }
+
+    /**
+     * Restores the snapshots written before the last shutdown and starts refreshing every query answered from now on in
+     * the background.
+     */
+    public void startBackgroundRefresh() {
+        restoredImages.putAll(snapshotStore.open());
+        refreshScheduler.start();
+    }
+
+    /**
+     * The regions, with the role assumed in them, of the queries restored from snapshots and not asked for since.
+     */
+    public Set<ImageQuery> restoredRegions() {
+        Set<ImageQuery> regions = new HashSet<>();
+        for (ImageQuery imageQuery : restoredImages.keySet()) {
+            regions.add(new ImageQuery(imageQuery.getRegion()).withRoleArn(imageQuery.getRoleArn()));
+        }
+        return regions;
+    }
+
+    public void stopBackgroundRefresh() {
+        refreshScheduler.stop();
+        snapshotStore.close();
+        restoredImages.clear();
+    }
+
+    /**
+     * Images matching the query, served from the background snapshot or the cache while they are live.
+     */
+    public ImageTimeline findImages(final ImageQuery imageQuery) {
+        return findImages(imageQuery, imageCache, new Callable<ImageTimeline>() {
+            @Override
+            public ImageTimeline call() throws Exception {
+                return fetchImages(imageQuery);
+            }
+        });
+    }
+
+    /**
+     * Images matching the query, filtered locally out of the catalogue of images owned by {@code catalogueOwners}.
+     * Queries whose filters cannot be evaluated locally fall back to {@link #findImages(ImageQuery)}.
+     */
+    public ImageTimeline findImages(ImageQuery imageQuery, Collection<String> catalogueOwners) {
+        if (catalogueOwners.isEmpty() || !LocalImageFilter.supports(imageQuery)) {
+            return findImages(imageQuery);
+        }
+        final ImageQuery catalogueQuery = catalogueQuery(imageQuery, catalogueOwners);
+        ImageTimeline catalogue = findImages(catalogueQuery, catalogueCache, new Callable<ImageTimeline>() {
+            @Override
+            public ImageTimeline call() throws Exception {
+                return fetchImages(catalogueQuery, Integer.MAX_VALUE);
+            }
+        });
+        return catalogue.filter(LocalImageFilter.compile(imageQuery));
+    }
+
+    private ImageTimeline findImages(final ImageQuery imageQuery, ImageCache cache, final Callable<ImageTimeline> loader) {
+        ImageTimeline snapshot = refreshScheduler.snapshot(imageQuery);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        // queries narrowed to a creation date window are only cached, as they are rarely asked for twice for long
+        if (CreationDateWindow.narrows(imageQuery)) {
+            return cache.get(imageQuery, loader);
+        }
+        Callable<ImageTimeline> savingLoader = new Callable<ImageTimeline>() {
+            @Override
+            public ImageTimeline call() throws Exception {
+                ImageTimeline images = loader.call();
+                snapshotStore.save(imageQuery, images);
+                return images;
+            }
+        };
+        ImageTimeline images = restoredImages.remove(imageQuery);
+        if (images == null) {
+            images = cache.get(imageQuery, savingLoader);
+        }
+        refreshScheduler.track(imageQuery, savingLoader, images);
+        return images;
+    }
+
+    /**
+     * The most recent images matching the query, always fetched from EC2 (concurrent identical fetches are coalesced).
+     */
+    public ImageTimeline fetchImages(ImageQuery imageQuery) {
+        return fetchImages(imageQuery, retainedImages);
+    }
+
+    /**
+     * Whether any image matches the query, answered from the background snapshot, a restored snapshot, the image cache
+     * or a live catalogue when one holds the query's images, and otherwise by scanning EC2 up to the first matching
+     * image, starting with the smallest page. Probing neither fills nor refreshes any cache.
+     */
+    public ImageProbe probeImages(ImageQuery imageQuery, Collection<String> catalogueOwners) {
+        ImageTimeline images = cachedImages(imageQuery, catalogueOwners);
+        if (images != null) {
+            CACHED_PROBES.increment();
+            return ImageProbe.of(images);
+        }
+        SCANNED_PROBES.increment();
+        final Image[] first = new Image[1];
+        imageSource.scan(imageQuery, PROBE_PAGE_SIZE, new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                first[0] = image;
+                return false;
+            }
+        });
+        return first[0] == null ? ImageProbe.none() : ImageProbe.found(first[0]);
+    }
+
+    private ImageTimeline cachedImages(ImageQuery imageQuery, Collection<String> catalogueOwners) {
+        ImageTimeline images = cachedImages(imageQuery, imageCache);
+        if (images == null && !catalogueOwners.isEmpty() && LocalImageFilter.supports(imageQuery)) {
+            ImageTimeline catalogue = cachedImages(catalogueQuery(imageQuery, catalogueOwners), catalogueCache);
+            if (catalogue != null) {
+                images = catalogue.filter(LocalImageFilter.compile(imageQuery));
+            }
+        }
+        return images;
+    }
+
+    private ImageTimeline cachedImages(ImageQuery imageQuery, ImageCache cache) {
+        ImageTimeline images = refreshScheduler.peek(imageQuery);
+        if (images == null) {
+            images = restoredImages.get(imageQuery);
+        }
+        if (images == null) {
+            images = cache.getIfPresent(imageQuery);
+        }
+        return images;
+    }
+
+    /**
+     * The earliest image matching the query created strictly after the instant, found by scanning every page while
+     * holding a single candidate. Used when a retained timeline is not complete far enough back.
+     */
+    public ImageRecord fetchFirstCreatedAfter(ImageQuery imageQuery, final long millis) {
+        final ImageRecord[] first = new ImageRecord[1];
+        imageSource.scan(imageQuery, new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                ImageRecord record = ImageRecord.of(image);
+                if (wants(record.getCreationMillis())) {
+                    first[0] = record;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean wants(long creationMillis) {
+                return creationMillis > millis && (first[0] == null || creationMillis < first[0].getCreationMillis());
+            }
+        });
+        return first[0];
+    }
+
+    private ImageTimeline fetchImages(final ImageQuery imageQuery, final int limit) {
+        return describeImageFlights.execute(imageQuery, new Callable<ImageTimeline>() {
+            @Override
+            public ImageTimeline call() throws Exception {
+                final ImageCandidates candidates = new ImageCandidates(limit);
+                // selecting happens as images arrive, between pages: only the time spent in it is recorded
+                final long[] selectionNanos = new long[1];
+                imageSource.scan(imageQuery, new ImageVisitor() {
+                    @Override
+                    public boolean visit(Image image) {
+                        long start = System.nanoTime();
+                        candidates.add(image);
+                        selectionNanos[0] += System.nanoTime() - start;
+                        return true;
+                    }
+
+                    @Override
+                    public boolean wants(long creationMillis) {
+                        long start = System.nanoTime();
+                        boolean wanted = candidates.offer(creationMillis);
+                        selectionNanos[0] += System.nanoTime() - start;
+                        return wanted;
+                    }
+                });
+                long start = System.nanoTime();
+                try {
+                    return candidates.toTimeline();
+                } finally {
+                    SELECTION_LATENCY.record(selectionNanos[0] + System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    /**
+     * The catalogue shared by every package of a repository: its owners and executable-by users are applied by EC2,
+     * only the package filters are evaluated locally.
+     */
+    private static ImageQuery catalogueQuery(ImageQuery imageQuery, Collection<String> catalogueOwners) {
+        return new ImageQuery(imageQuery.getRegion())
+                .withOwners(imageQuery.getOwners())
+                .withExecutableUsers(imageQuery.getExecutableUsers())
+                .withFilter("state", "available")
+                .withFilter("owner-id", catalogueOwners.toArray(new String[catalogueOwners.size()]))
+                .withRoleArn(imageQuery.getRoleArn());
+    }
+}
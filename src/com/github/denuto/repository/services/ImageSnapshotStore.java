@@ -0,0 +1,450 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageRecord;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the images last fetched for every query in a local file, so that after a restart the first polls can be
+ * answered from disk instead of all hitting EC2 at once.
+ * <p>
+ * The file at {@code ami.poller.snapshot.file} (unset by default, which disables snapshots) starts with a magic number
+ * and format version, followed by length-prefixed, CRC32-checked entries that are only ever appended. A crash can at
+ * worst leave a torn last entry, which is dropped when the file is next read. The file is rewritten with only the newest
+ * entry per query when it is opened and whenever it has grown past four times its compacted size (and at least 1MB),
+ * through a temporary file that is atomically moved into place. Entries older than
+ * {@code ami.poller.snapshot.max.age.minutes} (default 60) are neither restored nor kept by compactions.
+ * <p>
+ * Entries are written on a background thread, and only when a query's images have changed since they were last written.
+ * Unchanged images are instead confirmed by a small touch entry, at most once every quarter of the maximum age, which
+ * counts as a fresh save of the images written before it: the images of packages that rarely change are restored too.
+ */
+public class ImageSnapshotStore {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(ImageSnapshotStore.class);
+    private static final int MAGIC = 0x414d4950;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 8;
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    private final File file;
+    private final long maxAgeMillis;
+    private final Map<ImageQuery, Written> writtenEntries = new HashMap<>();
+
+    private ExecutorService writer;
+    private DataOutputStream output;
+    private long compactedBytes;
+    private long fileBytes;
+
+    public ImageSnapshotStore(File file, long maxAgeMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public static ImageSnapshotStore fromSystemProperties() {
+        String path = System.getProperty("ami.poller.snapshot.file", "");
+        return new ImageSnapshotStore(
+                path.isEmpty() ? null : new File(path),
+                TimeUnit.MINUTES.toMillis(Long.getLong("ami.poller.snapshot.max.age.minutes", 60)));
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Reads the newest snapshot of every query from the file, compacts it and starts accepting new entries.
+     * Returns an empty map when snapshots are disabled or the file cannot be read.
+     */
+    public synchronized Map<ImageQuery, ImageTimeline> open() {
+        Map<ImageQuery, ImageTimeline> snapshots = new HashMap<>();
+        if (!isEnabled() || writer != null) {
+            return snapshots;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            for (byte[] entry : compact().values()) {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+                long savedMillis = in.readLong();
+                ImageQuery imageQuery = readQuery(in);
+                in.readBoolean();
+                if (now - savedMillis <= maxAgeMillis) {
+                    snapshots.put(imageQuery, readTimeline(in).fetchedAt(savedMillis));
+                }
+            }
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read image snapshots from " + file + ", starting without them", e);
+            snapshots.clear();
+            return snapshots;
+        }
+        writer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ami-poller-snapshot-writer-%d")
+                .setDaemon(true)
+                .build());
+        LOGGER.info("Restored image snapshots of " + snapshots.size() + " queries from " + file);
+        return snapshots;
+    }
+
+    /**
+     * Appends the images of the query in the background, or only confirms them when they are the ones last written for
+     * it.
+     */
+    public synchronized void save(final ImageQuery imageQuery, final ImageTimeline images) {
+        if (writer == null) {
+            return;
+        }
+        final long savedMillis = System.currentTimeMillis();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(imageQuery, images, savedMillis);
+            }
+        });
+    }
+
+    /**
+     * Writes out pending entries and closes the file.
+     */
+    public void close() {
+        ExecutorService pendingWrites;
+        synchronized (this) {
+            pendingWrites = writer;
+            writer = null;
+        }
+        if (pendingWrites == null) {
+            return;
+        }
+        pendingWrites.shutdown();
+        try {
+            pendingWrites.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closeOutput();
+            writtenEntries.clear();
+        }
+    }
+
+    private synchronized void write(ImageQuery imageQuery, ImageTimeline images, long savedMillis) {
+        if (output == null) {
+            return;
+        }
+        int fingerprint = fingerprint(images);
+        Written written = writtenEntries.get(imageQuery);
+        boolean unchanged = written != null && written.fingerprint == fingerprint;
+        if (unchanged && savedMillis - written.savedMillis < maxAgeMillis / 4) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeLong(savedMillis);
+            writeQuery(out, imageQuery);
+            out.writeBoolean(!unchanged);
+            if (!unchanged) {
+                writeTimeline(out, images);
+            }
+            writeEntry(output, payload.toByteArray());
+            output.flush();
+            fileBytes += 8 + payload.size();
+            writtenEntries.put(imageQuery, new Written(fingerprint, savedMillis));
+
+            if (fileBytes > Math.max(MIN_COMPACTION_BYTES, 4 * compactedBytes)) {
+                closeOutput();
+                compact();
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write image snapshot to " + file + ", no longer writing snapshots", e);
+            closeOutput();
+        }
+    }
+
+    /**
+     * Rewrites the file with only the newest entry per query, as of its last touch, and only while it is not older than
+     * the maximum age, returning those entries.
+     */
+    private LinkedHashMap<ImageQuery, byte[]> compact() throws IOException {
+        LinkedHashMap<ImageQuery, byte[]> entries = readEntries();
+        long now = System.currentTimeMillis();
+        Iterator<byte[]> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - new DataInputStream(new ByteArrayInputStream(iterator.next())).readLong() > maxAgeMillis) {
+                iterator.remove();
+            }
+        }
+        // dropped queries are written whole again, as a touch would confirm nothing
+        writtenEntries.keySet().retainAll(entries.keySet());
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        long bytes = HEADER_BYTES;
+        try (FileOutputStream fileOutput = new FileOutputStream(compacted)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOutput));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (byte[] entry : entries.values()) {
+                writeEntry(out, entry);
+                bytes += 8 + entry.length;
+            }
+            out.flush();
+            fileOutput.getFD().sync();
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        compactedBytes = bytes;
+        fileBytes = bytes;
+        return entries;
+    }
+
+    private LinkedHashMap<ImageQuery, byte[]> readEntries() throws IOException {
+        LinkedHashMap<ImageQuery, byte[]> entries = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (file.length() < HEADER_BYTES || in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOGGER.warn("Ignoring image snapshot file " + file + " with an unknown format");
+                return entries;
+            }
+            while (true) {
+                byte[] entry = readEntry(in, file.length());
+                if (entry == null) {
+                    break;
+                }
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(entry, 8, entry.length - 8));
+                ImageQuery imageQuery = readQuery(payload);
+                if (!payload.readBoolean()) {
+                    // a touch: the images written before were confirmed again when it was saved
+                    byte[] touched = entries.get(imageQuery);
+                    if (touched != null) {
+                        System.arraycopy(entry, 0, touched, 0, 8);
+                    }
+                    continue;
+                }
+                entries.remove(imageQuery);
+                entries.put(imageQuery, entry);
+            }
+        }
+        return entries;
+    }
+
+    private static void writeEntry(DataOutputStream out, byte[] entry) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(entry);
+        out.writeInt(entry.length);
+        out.writeInt((int) crc.getValue());
+        out.write(entry);
+    }
+
+    /**
+     * The next intact entry, or null at the end of the file or at a torn or corrupt entry.
+     */
+    private static byte[] readEntry(DataInputStream in, long maxLength) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 8 || length > maxLength) {
+                return null;
+            }
+            byte[] entry = new byte[length];
+            in.readFully(entry);
+            CRC32 crc = new CRC32();
+            crc.update(entry);
+            return (int) crc.getValue() == checksum ? entry : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void closeOutput() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to close image snapshot file " + file, e);
+        }
+        output = null;
+    }
+
+    /**
+     * Hashes what revisions are published from, so that a retagged or redescribed image is written again.
+     */
+    private static int fingerprint(ImageTimeline images) {
+        int result = Long.valueOf(images.completeAfterMillis()).hashCode();
+        for (ImageRecord record : images.records()) {
+            Image image = record.getImage();
+            result = 31 * result + Objects.hashCode(image.getImageId());
+            result = 31 * result + Long.valueOf(record.getCreationMillis()).hashCode();
+            result = 31 * result + Objects.hashCode(image.getName());
+            result = 31 * result + Objects.hashCode(image.getDescription());
+            result = 31 * result + Objects.hashCode(image.getOwnerId());
+            for (Tag tag : image.getTags()) {
+                result = 31 * result + Objects.hashCode(tag.getKey());
+                result = 31 * result + Objects.hashCode(tag.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static void writeQuery(DataOutput out, ImageQuery imageQuery) throws IOException {
+        writeString(out, imageQuery.getRegion());
+        writeStrings(out, imageQuery.getOwners());
+        writeStrings(out, imageQuery.getExecutableUsers());
+        out.writeInt(imageQuery.getFilters().size());
+        for (Map.Entry<String, ? extends SortedSet<String>> filter : imageQuery.getFilters().entrySet()) {
+            writeString(out, filter.getKey());
+            writeStrings(out, filter.getValue());
+        }
+        writeString(out, imageQuery.getRoleArn());
+    }
+
+    private static ImageQuery readQuery(DataInput in) throws IOException {
+        ImageQuery imageQuery = new ImageQuery(readString(in))
+                .withOwners(readStrings(in))
+                .withExecutableUsers(readStrings(in));
+        int filters = in.readInt();
+        for (int i = 0; i < filters; i++) {
+            String name = readString(in);
+            List<String> values = readStrings(in);
+            imageQuery = imageQuery.withFilter(name, values.toArray(new String[values.size()]));
+        }
+        return imageQuery.withRoleArn(readString(in));
+    }
+
+    private static void writeTimeline(DataOutput out, ImageTimeline images) throws IOException {
+        out.writeLong(images.completeAfterMillis());
+        out.writeInt(images.size());
+        for (ImageRecord record : images.records()) {
+            Image image = record.getImage();
+            out.writeLong(record.getCreationMillis());
+            writeString(out, image.getImageId());
+            writeString(out, image.getName());
+            writeString(out, image.getDescription());
+            writeString(out, image.getCreationDate());
+            writeString(out, image.getOwnerId());
+            writeString(out, image.getImageOwnerAlias());
+            writeString(out, image.getState());
+            writeString(out, image.getArchitecture());
+            writeString(out, image.getRootDeviceType());
+            writeString(out, image.getVirtualizationType());
+            out.writeInt(image.getTags().size());
+            for (Tag tag : image.getTags()) {
+                writeString(out, tag.getKey());
+                writeString(out, tag.getValue());
+            }
+        }
+    }
+
+    private static ImageTimeline readTimeline(DataInput in) throws IOException {
+        long completeAfterMillis = in.readLong();
+        int size = in.readInt();
+        List<ImageRecord> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            long creationMillis = in.readLong();
+            Image image = new Image()
+                    .withImageId(readString(in))
+                    .withName(readString(in))
+                    .withDescription(readString(in))
+                    .withCreationDate(readString(in))
+                    .withOwnerId(readString(in))
+                    .withImageOwnerAlias(readString(in))
+                    .withState(readString(in))
+                    .withArchitecture(readString(in))
+                    .withRootDeviceType(readString(in))
+                    .withVirtualizationType(readString(in));
+            int tags = in.readInt();
+            List<Tag> imageTags = new ArrayList<>(tags);
+            for (int j = 0; j < tags; j++) {
+                imageTags.add(new Tag(readString(in), readString(in)));
+            }
+            image.setTags(imageTags);
+            records.add(new ImageRecord(image, creationMillis));
+        }
+        return ImageTimeline.ofRecords(records, completeAfterMillis);
+    }
+
+    private static void writeStrings(DataOutput out, SortedSet<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static List<String> readStrings(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static class Written {
+        private final int fingerprint;
+        private final long savedMillis;
+
+        private Written(int fingerprint, long savedMillis) {
+            this.fingerprint = fingerprint;
+            this.savedMillis = savedMillis;
+        }
+    }
+}
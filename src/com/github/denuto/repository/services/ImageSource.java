@@ -0,0 +1,17 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.models.ImageQuery;
+
+/**
+ * Fetches the images matching a query from EC2 page by page, handing each image to the visitor as soon as its page
+ * arrives rather than materializing the whole result.
+ */
+public interface ImageSource {
+    void scan(ImageQuery imageQuery, ImageVisitor visitor);
+
+    /**
+     * Like {@link #scan(ImageQuery, ImageVisitor)}, but asking for only {@code firstPageSize} images on the first page
+     * and twice as many on every next one, up to the usual page size: for visitors that stop after the first images.
+     */
+    void scan(ImageQuery imageQuery, int firstPageSize, ImageVisitor visitor);
+}
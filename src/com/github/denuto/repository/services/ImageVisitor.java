@@ -0,0 +1,18 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+
+public interface ImageVisitor {
+    /**
+     * @return false to stop the scan after this image
+     */
+    boolean visit(Image image);
+
+    /**
+     * Called by sources that read an image's creation date before the rest of it. When it returns false the image is
+     * skipped without being built and is not visited.
+     */
+    default boolean wants(long creationMillis) {
+        return true;
+    }
+}
@@ -0,0 +1,252 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Predicate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the filters of an {@link ImageQuery} against images in memory, following EC2 filter semantics: values of
+ * one filter are OR'ed, filters are AND'ed, matching is case sensitive and values may contain the {@code *} and
+ * {@code ?} wildcards (escaped with a backslash).
+ */
+public class LocalImageFilter implements Predicate<Image> {
+
+    private final List<Condition> conditions;
+
+    private LocalImageFilter(List<Condition> conditions) {
+        this.conditions = conditions;
+    }
+
+    /**
+     * Whether every filter of the query can be evaluated locally.
+     */
+    public static boolean supports(ImageQuery imageQuery) {
+        for (String filterName : imageQuery.getFilters().keySet()) {
+            if (!filterName.startsWith("tag:") && attributeOf(filterName) == null && !filterName.equals("tag-key") && !filterName.equals("tag-value")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static LocalImageFilter compile(ImageQuery imageQuery) {
+        if (!supports(imageQuery)) {
+            throw new IllegalArgumentException("Filters of " + imageQuery + " cannot be evaluated locally");
+        }
+        List<Condition> conditions = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<String>> filter : imageQuery.getFilters().entrySet()) {
+            conditions.add(new Condition(filter.getKey(), compilePatterns(filter.getValue())));
+        }
+        return new LocalImageFilter(conditions);
+    }
+
+    @Override
+    public boolean apply(Image image) {
+        return matches(image);
+    }
+
+    public boolean matches(Image image) {
+        for (Condition condition : conditions) {
+            if (!condition.matches(image)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Pattern> compilePatterns(Collection<String> values) {
+        List<Pattern> patterns = new ArrayList<>(values.size());
+        for (String value : values) {
+            patterns.add(new Pattern(value));
+        }
+        return patterns;
+    }
+
+    private static Attribute attributeOf(String filterName) {
+        switch (filterName) {
+            case "architecture":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getArchitecture();
+                    }
+                };
+            case "creation-date":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getCreationDate();
+                    }
+                };
+            case "description":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getDescription();
+                    }
+                };
+            case "image-id":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getImageId();
+                    }
+                };
+            case "name":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getName();
+                    }
+                };
+            case "owner-alias":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getImageOwnerAlias();
+                    }
+                };
+            case "owner-id":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getOwnerId();
+                    }
+                };
+            case "root-device-type":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getRootDeviceType();
+                    }
+                };
+            case "state":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getState();
+                    }
+                };
+            case "virtualization-type":
+                return new Attribute() {
+                    @Override
+                    public String of(Image image) {
+                        return image.getVirtualizationType();
+                    }
+                };
+            default:
+                return null;
+        }
+    }
+
+    private interface Attribute {
+        String of(Image image);
+    }
+
+    private static class Condition {
+        private final String filterName;
+        private final Attribute attribute;
+        private final List<Pattern> patterns;
+
+        private Condition(String filterName, List<Pattern> patterns) {
+            this.filterName = filterName;
+            this.attribute = attributeOf(filterName);
+            this.patterns = patterns;
+        }
+
+        private boolean matches(Image image) {
+            if (attribute != null) {
+                return matchesAny(attribute.of(image));
+            }
+            for (Tag tag : tagsOf(image)) {
+                if (filterName.equals("tag-key") && matchesAny(tag.getKey())) {
+                    return true;
+                }
+                if (filterName.equals("tag-value") && matchesAny(tag.getValue())) {
+                    return true;
+                }
+                if (filterName.startsWith("tag:") && filterName.substring(4).equals(tag.getKey()) && matchesAny(tag.getValue())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesAny(String value) {
+            if (value == null) {
+                return false;
+            }
+            for (Pattern pattern : patterns) {
+                if (pattern.matches(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static List<Tag> tagsOf(Image image) {
+            return image.getTags() == null ? new ArrayList<Tag>() : image.getTags();
+        }
+    }
+
+    /**
+     * An EC2 filter value: {@code *} matches any run of characters, {@code ?} matches exactly one character and a
+     * backslash makes the following character literal.
+     */
+    static class Pattern {
+        private static final int ANY_RUN = -1;
+        private static final int ANY_ONE = -2;
+
+        private final int[] tokens;
+
+        Pattern(String value) {
+            int[] tokens = new int[value.length()];
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\\' && i + 1 < value.length()) {
+                    tokens[length++] = value.charAt(++i);
+                } else if (c == '*') {
+                    tokens[length++] = ANY_RUN;
+                } else if (c == '?') {
+                    tokens[length++] = ANY_ONE;
+                } else {
+                    tokens[length++] = c;
+                }
+            }
+            this.tokens = Arrays.copyOf(tokens, length);
+        }
+
+        boolean matches(String value) {
+            int t = 0;
+            int v = 0;
+            int lastRun = -1;
+            int lastRunMatch = 0;
+            while (v < value.length()) {
+                if (t < tokens.length && (tokens[t] == ANY_ONE || tokens[t] == value.charAt(v))) {
+                    t++;
+                    v++;
+                } else if (t < tokens.length && tokens[t] == ANY_RUN) {
+                    lastRun = t++;
+                    lastRunMatch = v;
+                } else if (lastRun != -1) {
+                    t = lastRun + 1;
+                    v = ++lastRunMatch;
+                } else {
+                    return false;
+                }
+            }
+            while (t < tokens.length && tokens[t] == ANY_RUN) {
+                t++;
+            }
+            return t == tokens.length;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.util.SdkHttpUtils;
+import com.github.denuto.repository.metrics.LatencyHistogram;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Charsets;
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Pages through DescribeImages by calling the EC2 Query API directly and parsing each response as it streams in with
+ * {@link DescribeImagesResponseParser}, instead of letting the SDK unmarshal complete image object graphs.
+ * <p>
+ * Requests are signed with Signature Version 4 using the credentials of the query's role, or the given ones, and ask for
+ * {@code ami.poller.fetch.page.size} (default 1000) images per page, with the connect and read timeouts of the SDK
+ * clients. Responses are compressed when the SDK clients ask for compressed ones too. Connections of responses read
+ * through are left open for the JVM to reuse (see the {@code http.keepAlive} and {@code http.maxConnections} system
+ * properties). Pages are requested at the pace of an {@link AdaptiveRateLimiter}.
+ * <p>
+ * Pages failing with a retryable error other than throttling (a 5xx response or an I/O error) are requested again with
+ * the SDK clients' retry policy, up to {@code ami.poller.ec2.max.error.retries} (default 3) times with backoff, as long
+ * as none of their images was visited yet.
+ */
+public class QueryApiImageSource implements ImageSource {
+
+    private static final String API_VERSION = "2016-11-15";
+    private static final LatencyHistogram DESCRIBE_IMAGES_LATENCY = PluginMetrics.shared().histogram("ec2.describe-images");
+    // only registered once this client is in use, so that the SDK client does not expose counters it never updates
+    private static final LongAdder RESPONSE_BYTES = PluginMetrics.shared().counter("ec2.describe-images.bytes");
+    private static final LongAdder RETRIES = PluginMetrics.shared().counter("ec2.describe-images.retries");
+
+    private final int pageSize;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final boolean gzip;
+    private final AWSCredentialsProvider credentialsProvider;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final RetryPolicy retryPolicy;
+    private final URI endpointOverride;
+
+    /**
+     * @param endpointOverride the url to call EC2 at in every region, or null to call each region's own endpoint
+     */
+    public QueryApiImageSource(int pageSize, int connectTimeoutMillis, int readTimeoutMillis, boolean gzip, AWSCredentialsProvider credentialsProvider,
+                               AdaptiveRateLimiter rateLimiter, RetryPolicy retryPolicy, URI endpointOverride) {
+        this.pageSize = pageSize;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.gzip = gzip;
+        this.credentialsProvider = credentialsProvider;
+        this.rateLimiter = rateLimiter;
+        this.retryPolicy = retryPolicy;
+        this.endpointOverride = endpointOverride;
+    }
+
+    public static QueryApiImageSource fromSystemProperties() {
+        ClientConfiguration clientConfiguration = AmazonEC2ClientFactory.clientConfiguration();
+        return new QueryApiImageSource(
+                Integer.getInteger("ami.poller.fetch.page.size", 1000),
+                clientConfiguration.getConnectionTimeout(),
+                clientConfiguration.getSocketTimeout(),
+                clientConfiguration.useGzip(),
+                CredentialsProviders.defaultProvider(),
+                AdaptiveRateLimiter.shared(),
+                clientConfiguration.getRetryPolicy(),
+                AmazonEC2ClientFactory.endpointOverride());
+    }
+
+    @Override
+    public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+        scan(imageQuery, pageSize, visitor);
+    }
+
+    @Override
+    public void scan(final ImageQuery imageQuery, int firstPageSize, final ImageVisitor visitor) {
+        final URI endpoint = endpoint(imageQuery.getRegion());
+        int maxResults = Math.min(firstPageSize, pageSize);
+        String nextToken = null;
+        do {
+            nextToken = describeImagesPage(endpoint, imageQuery, nextToken, maxResults, visitor);
+            maxResults = (int) Math.min(pageSize, 2L * maxResults);
+        } while (nextToken != null);
+    }
+
+    private String describeImagesPage(final URI endpoint, final ImageQuery imageQuery, final String nextToken, final int maxResults, final ImageVisitor visitor) {
+        final AtomicBoolean visited = new AtomicBoolean();
+        final ImageVisitor pageVisitor = new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                visited.set(true);
+                return visitor.visit(image);
+            }
+
+            @Override
+            public boolean wants(long creationMillis) {
+                return visitor.wants(creationMillis);
+            }
+        };
+        for (int retries = 0; ; retries++) {
+            try {
+                // throttled pages fail before any of their images is visited, so they can be requested again
+                return rateLimiter.call(imageQuery.getRegion(), CredentialsProviders.credentialsId(imageQuery.getRoleArn()), new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return describeImages(endpoint, imageQuery, nextToken, maxResults, pageVisitor);
+                    }
+                });
+            } catch (AmazonClientException e) {
+                if (visited.get() || retries >= retryPolicy.getMaxErrorRetry()
+                        || !retryPolicy.getRetryCondition().shouldRetry(AmazonWebServiceRequest.NOOP, e, retries)) {
+                    throw e;
+                }
+                RETRIES.increment();
+                long delayMillis = retryPolicy.getBackoffStrategy().delayBeforeNextRetry(AmazonWebServiceRequest.NOOP, e, retries);
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private String describeImages(URI endpoint, ImageQuery imageQuery, String nextToken, int maxResults, ImageVisitor visitor) {
+        DefaultRequest<Void> request = newRequest(endpoint, imageQuery, nextToken, maxResults);
+        byte[] body = SdkHttpUtils.encodeParameters(request).getBytes(Charsets.UTF_8);
+        HttpURLConnection connection = null;
+        boolean reusable = false;
+        long start = System.nanoTime();
+        try {
+            connection = (HttpURLConnection) new URL(endpoint.toString()).openConnection();
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body);
+            }
+
+            int statusCode = connection.getResponseCode();
+            if (statusCode != HttpURLConnection.HTTP_OK) {
+                try (InputStream errorStream = connection.getErrorStream()) {
+                    throw DescribeImagesResponseParser.parseError(errorStream, statusCode);
+                }
+            }
+            CountingInputStream countingInputStream = new CountingInputStream(connection.getInputStream());
+            InputStream responseStream = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                    ? new GZIPInputStream(countingInputStream)
+                    : countingInputStream;
+            try (InputStream inputStream = new BufferedInputStream(responseStream)) {
+                String pageToken = DescribeImagesResponseParser.parse(inputStream, visitor);
+                reusable = true;
+                return pageToken;
+            } finally {
+                RESPONSE_BYTES.add(countingInputStream.getCount());
+            }
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to describe images in " + imageQuery.getRegion(), e);
+        } finally {
+            DESCRIBE_IMAGES_LATENCY.recordSince(start);
+            // closing the response stream hands a healthy connection back to the JVM's keep-alive cache
+            if (connection != null && !reusable) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private DefaultRequest<Void> newRequest(URI endpoint, ImageQuery imageQuery, String nextToken, int maxResults) {
+        DefaultRequest<Void> request = new DefaultRequest<>("AmazonEC2");
+        request.setEndpoint(endpoint);
+        request.setHttpMethod(HttpMethodName.POST);
+        request.addHeader("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+        if (gzip) {
+            request.addHeader("Accept-Encoding", "gzip");
+        }
+        request.addParameter("Action", "DescribeImages");
+        request.addParameter("Version", API_VERSION);
+        request.addParameter("MaxResults", String.valueOf(maxResults));
+        if (nextToken != null) {
+            request.addParameter("NextToken", nextToken);
+        }
+        addList(request, "Owner", imageQuery.getOwners());
+        addList(request, "ExecutableBy", imageQuery.getExecutableUsers());
+        int filterIndex = 1;
+        for (Map.Entry<String, ? extends SortedSet<String>> filter : imageQuery.getFilters().entrySet()) {
+            request.addParameter("Filter." + filterIndex + ".Name", filter.getKey());
+            addList(request, "Filter." + filterIndex + ".Value", filter.getValue());
+            filterIndex++;
+        }
+
+        AWS4Signer signer = new AWS4Signer();
+        signer.setServiceName("ec2");
+        signer.setRegionName(imageQuery.getRegion());
+        AWSCredentialsProvider signingCredentials = imageQuery.getRoleArn() == null ? credentialsProvider : CredentialsProviders.assumeRole(imageQuery.getRoleArn());
+        signer.sign(request, signingCredentials.getCredentials());
+        return request;
+    }
+
+    private static void addList(DefaultRequest<Void> request, String prefix, SortedSet<String> values) {
+        int index = 1;
+        for (String value : values) {
+            request.addParameter(prefix + "." + index++, value);
+        }
+    }
+
+    private URI endpoint(String regionName) {
+        if (endpointOverride != null) {
+            return endpointOverride;
+        }
+        Region region = RegionUtils.getRegion(regionName);
+        String host = region == null ? "ec2." + regionName + ".amazonaws.com" : region.getServiceEndpoint("ec2");
+        return URI.create(host.contains("://") ? host + "/" : "https://" + host + "/");
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.google.common.base.Ticker;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the credentials of another provider, so that signing a request does not walk the default credentials provider
+ * chain (and, on EC2, call the instance metadata service) every time.
+ * <p>
+ * Credentials older than the refresh interval are still handed out while a single refresh runs on the executor. Only
+ * when no credentials were loaded yet, or every refresh failed for twice the refresh interval, do callers wait for the
+ * provider themselves. A failed refresh keeps the credentials loaded before.
+ * <p>
+ * Temporary (session) credentials are not cached: the SDK does not tell when they expire, but the providers handing
+ * them out cache them and renew them ahead of their expiry themselves, so they are asked for them on every use.
+ */
+public class RefreshingCredentialsProvider implements AWSCredentialsProvider {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(RefreshingCredentialsProvider.class);
+    private static final LongAdder REFRESHES = PluginMetrics.shared().counter("credentials.refreshes");
+    private static final LongAdder FAILED_REFRESHES = PluginMetrics.shared().counter("credentials.refreshes.failed");
+
+    private final AWSCredentialsProvider delegate;
+    private final long refreshNanos;
+    private final Executor executor;
+    private final Ticker ticker;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile Loaded loaded;
+
+    public RefreshingCredentialsProvider(AWSCredentialsProvider delegate, long refreshMillis, Executor executor, Ticker ticker) {
+        this.delegate = delegate;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        this.executor = executor;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public AWSCredentials getCredentials() {
+        Loaded current = loaded;
+        if (current == null || ticker.read() - current.loadedAtNanos >= 2 * refreshNanos) {
+            return load(current);
+        }
+        if (current.credentials instanceof AWSSessionCredentials) {
+            return delegate.getCredentials();
+        }
+        if (ticker.read() - current.loadedAtNanos >= refreshNanos && refreshing.compareAndSet(false, true)) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            reload();
+                        } catch (RuntimeException e) {
+                            LOGGER.warn("Unable to refresh AWS credentials, using the ones loaded before", e);
+                        } finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the executor was shut down: a later call tries again, or loads them itself once they are too old
+                refreshing.set(false);
+            }
+        }
+        return current.credentials;
+    }
+
+    /**
+     * Reloads the credentials right away, forcing the provider to fetch fresh ones.
+     */
+    @Override
+    public void refresh() {
+        delegate.refresh();
+        reload();
+    }
+
+    private synchronized AWSCredentials load(Loaded stale) {
+        // another caller may have loaded them while this one waited
+        if (loaded != stale) {
+            return loaded.credentials;
+        }
+        return reload();
+    }
+
+    private synchronized AWSCredentials reload() {
+        REFRESHES.increment();
+        try {
+            AWSCredentials credentials = delegate.getCredentials();
+            loaded = new Loaded(credentials, ticker.read());
+            return credentials;
+        } catch (RuntimeException e) {
+            FAILED_REFRESHES.increment();
+            throw e;
+        }
+    }
+
+    private static class Loaded {
+        private final AWSCredentials credentials;
+        private final long loadedAtNanos;
+
+        private Loaded(AWSCredentials credentials, long loadedAtNanos) {
+            this.credentials = credentials;
+            this.loadedAtNanos = loadedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.http.timers.client.ClientExecutionTimeoutException;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Function;
+import com.google.common.base.Ticker;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops polling a region with a credentials identity once {@code ami.poller.circuit.failure.threshold} (default 3) polls
+ * in a row have failed in it. For the next {@code ami.poller.circuit.open.seconds} (default 60) those polls fail straight
+ * away with a {@link RegionUnavailableException}; after that a single poll is let through to probe the region, closing
+ * the circuit again when it succeeds.
+ * <p>
+ * Only failures of the region itself count: connection and read failures, timeouts, server errors and throttling.
+ * Errors EC2 blames on the request, such as a filter it rejects or a role that may not describe images, fail their own
+ * poll without counting either way, so one misconfigured package does not stop the others in its region.
+ */
+public class RegionCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(RegionCircuitBreaker.class);
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    public RegionCircuitBreaker(int failureThreshold, long openMillis, Ticker ticker) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.ticker = ticker;
+    }
+
+    public static RegionCircuitBreaker fromSystemProperties() {
+        return new RegionCircuitBreaker(
+                Integer.getInteger("ami.poller.circuit.failure.threshold", 3),
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.circuit.open.seconds", 60)),
+                Ticker.systemTicker());
+    }
+
+    /**
+     * Wraps a per-region polling step, failing it without running it while the query's region is unavailable.
+     */
+    public <T> Function<ImageQuery, T> guard(final Function<ImageQuery, T> step) {
+        return new Function<ImageQuery, T>() {
+            @Override
+            public T apply(ImageQuery imageQuery) {
+                Circuit circuit = circuit(imageQuery.getRegion(), CredentialsProviders.credentialsId(imageQuery.getRoleArn()));
+                if (!circuit.tryPass()) {
+                    throw new RegionUnavailableException(imageQuery.getRegion());
+                }
+                try {
+                    T result = step.apply(imageQuery);
+                    circuit.onSuccess();
+                    return result;
+                } catch (RuntimeException e) {
+                    if (isRegionFailure(e)) {
+                        circuit.onFailure();
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+
+    public boolean isOpen(String region, String credentialsId) {
+        Circuit circuit = circuits.get(region + "/" + credentialsId);
+        return circuit != null && circuit.isOpen();
+    }
+
+    /**
+     * Whether the failure says the region cannot be polled right now, rather than that the poll itself is wrong.
+     */
+    static boolean isRegionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof AmazonServiceException) {
+                return ((AmazonServiceException) cause).getStatusCode() >= 500 || AdaptiveRateLimiter.isThrottling(cause);
+            }
+            if (cause instanceof IOException
+                    || cause instanceof ClientExecutionTimeoutException
+                    || cause instanceof BoundedImageSource.CallTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Circuit circuit(String region, String credentialsId) {
+        String key = region + "/" + credentialsId;
+        Circuit circuit = circuits.get(key);
+        if (circuit == null) {
+            Circuit created = new Circuit(key);
+            circuit = circuits.putIfAbsent(key, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    public static class RegionUnavailableException extends IllegalStateException {
+        public RegionUnavailableException(String region) {
+            super("Not polling " + region + " after repeated failures");
+        }
+    }
+
+    private class Circuit {
+        private final String key;
+        private int consecutiveFailures;
+        private boolean open;
+        private long retryAtNanos;
+
+        private Circuit(String key) {
+            this.key = key;
+        }
+
+        private synchronized boolean tryPass() {
+            if (!open) {
+                return true;
+            }
+            long now = ticker.read();
+            if (now - retryAtNanos < 0) {
+                return false;
+            }
+            // let this poll probe the region, keeping every other one out until it is done
+            retryAtNanos = now + openNanos;
+            return true;
+        }
+
+        private synchronized void onSuccess() {
+            if (open) {
+                LOGGER.info("Polling " + key + " again");
+            }
+            consecutiveFailures = 0;
+            open = false;
+        }
+
+        private synchronized void onFailure() {
+            consecutiveFailures++;
+            if (!open && consecutiveFailures >= failureThreshold) {
+                LOGGER.warn("Not polling " + key + " for " + TimeUnit.NANOSECONDS.toSeconds(openNanos) + "s after " + consecutiveFailures + " failed polls");
+                open = true;
+            }
+            if (open) {
+                retryAtNanos = ticker.read() + openNanos;
+            }
+        }
+
+        private synchronized boolean isOpen() {
+            return open;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a per-region step for every region of a multi-region package in parallel, so a poll takes as long as its
+ * slowest region rather than the sum of all of them.
+ * <p>
+ * Regions are queried on at most {@code ami.poller.region.threads} (default 8) threads; when those and their queue are
+ * busy the polling thread queries the region itself. A package with a single region is always queried inline.
+ */
+public class RegionFanOut {
+
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final int threads;
+    private ThreadPoolExecutor executor;
+
+    public RegionFanOut(int threads) {
+        this.threads = threads;
+    }
+
+    public static RegionFanOut fromSystemProperties() {
+        return new RegionFanOut(Integer.getInteger("ami.poller.region.threads", 8));
+    }
+
+    /**
+     * Applies the step to every query, returning the results in query order. The first failure, in query order, is
+     * rethrown once every region has finished.
+     */
+    public <T> List<T> apply(List<ImageQuery> imageQueries, final Function<ImageQuery, T> step) {
+        if (imageQueries.size() == 1) {
+            return Collections.singletonList(step.apply(imageQueries.get(0)));
+        }
+        ThreadPoolExecutor regionExecutor = executor();
+        List<FutureTask<T>> tasks = new ArrayList<>(imageQueries.size());
+        for (final ImageQuery imageQuery : imageQueries) {
+            FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return step.apply(imageQuery);
+                }
+            });
+            tasks.add(task);
+            regionExecutor.execute(task);
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        RuntimeException failure = null;
+        for (Future<T> task : tasks) {
+            try {
+                results.add(Uninterruptibles.getUninterruptibly(task));
+            } catch (ExecutionException e) {
+                results.add(null);
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException("Unable to query region", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    public synchronized void shutdown() {
+        if (executor != null) {
+            for (Runnable queued : executor.shutdownNow()) {
+                ((Future<?>) queued).cancel(false);
+            }
+            executor = null;
+        }
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("ami-poller-region-%d")
+                            .setDaemon(true)
+                            .build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+}
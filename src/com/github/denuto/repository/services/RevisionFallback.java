@@ -0,0 +1,124 @@
+package com.github.denuto.repository.services;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.thoughtworks.go.plugin.api.logging.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers revision requests within {@code ami.poller.handler.deadline.seconds} (default 20) even while EC2 is slow or
+ * failing.
+ * <p>
+ * Requests are answered on at most {@code ami.poller.handler.threads} (default 8) threads of their own; further requests
+ * wait for a free thread. When an answer is not ready by the deadline, waiting included, or one of the package's regions
+ * is not being polled after repeated failures (see {@link RegionCircuitBreaker}), the package's last known good answer is
+ * given instead and counted as stale. An answer that was started is still worked out in the background, warming the
+ * image caches for the next poll, while one still waiting for a thread is dropped. Other failures are passed on.
+ * <p>
+ * latest-revision falls back to the last revision found for the package, latest-revision-since to reporting no newer
+ * revision yet, so that no revision is skipped once EC2 recovers.
+ */
+public class RevisionFallback {
+
+    private static final Logger LOGGER = Logger.getLoggerFor(RevisionFallback.class);
+    private static final int MAX_PACKAGES = 10000;
+    private static final String NO_NEWER_REVISION = "";
+
+    private final long deadlineMillis;
+    private final ThreadPoolExecutor executor;
+    private final Cache<Object, String> lastKnownGood = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PACKAGES)
+            .build();
+    private final AtomicLong staleAnswers = new AtomicLong();
+
+    public RevisionFallback(long deadlineMillis, int threads) {
+        this.deadlineMillis = deadlineMillis;
+        this.executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ami-poller-handler-%d")
+                        .setDaemon(true)
+                        .build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static RevisionFallback fromSystemProperties() {
+        return new RevisionFallback(
+                TimeUnit.SECONDS.toMillis(Long.getLong("ami.poller.handler.deadline.seconds", 20)),
+                Integer.getInteger("ami.poller.handler.threads", 8));
+    }
+
+    /**
+     * The latest revision of the package, or the last one found when it cannot be found in time.
+     */
+    public String latestRevision(final Object packageKey, final Callable<String> handler) {
+        return answer("latest-revision", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                String answer = handler.call();
+                if (!answer.isEmpty()) {
+                    lastKnownGood.put(packageKey, answer);
+                }
+                return answer;
+            }
+        }, lastKnownGood.getIfPresent(packageKey));
+    }
+
+    /**
+     * The first revision of the package after the previous one, or no revision when it cannot be found in time.
+     */
+    public String latestRevisionSince(Callable<String> handler) {
+        return answer("latest-revision-since", handler, NO_NEWER_REVISION);
+    }
+
+    /**
+     * The number of requests answered with a last known good answer so far.
+     */
+    public long staleAnswers() {
+        return staleAnswers.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String answer(String requestName, Callable<String> handler, String fallback) {
+        FutureTask<String> answer = new FutureTask<>(handler);
+        try {
+            executor.execute(answer);
+            return answer.get(deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            executor.remove(answer);
+            return stale(requestName, fallback, "no answer within " + deadlineMillis + "ms", null);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RegionCircuitBreaker.RegionUnavailableException) {
+                return stale(requestName, fallback, e.getCause().getMessage(), (RuntimeException) e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to answer " + requestName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted answering " + requestName, e);
+        }
+    }
+
+    private String stale(String requestName, String fallback, String reason, RuntimeException failure) {
+        if (fallback == null) {
+            throw failure != null ? failure : new IllegalStateException("Unable to answer " + requestName + ": " + reason);
+        }
+        staleAnswers.incrementAndGet();
+        LOGGER.warn("Answering " + requestName + " with the last known good answer, " + reason);
+        return fallback;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.metrics.LatencyHistogram;
+import com.github.denuto.repository.metrics.PluginMetrics;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Function;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Pages through DescribeImages with the AWS SDK client of the query's region and role, requesting
+ * {@code ami.poller.fetch.page.size} (default 1000, the most EC2 allows) images per page. Pages are requested at the
+ * pace of an {@link AdaptiveRateLimiter}.
+ */
+public class SdkImageSource implements ImageSource {
+
+    private static final LatencyHistogram DESCRIBE_IMAGES_LATENCY = PluginMetrics.shared().histogram("ec2.describe-images");
+
+    private static final Function<ImageQuery, AmazonEC2> SHARED_CLIENTS = new Function<ImageQuery, AmazonEC2>() {
+        @Override
+        public AmazonEC2 apply(ImageQuery imageQuery) {
+            return imageQuery.getRoleArn() == null
+                    ? AmazonEC2ClientFactory.newInstance(imageQuery.getRegion())
+                    : AmazonEC2ClientFactory.newInstance(imageQuery.getRegion(), imageQuery.getRoleArn(), CredentialsProviders.assumeRole(imageQuery.getRoleArn()));
+        }
+    };
+
+    private final int pageSize;
+    private final AdaptiveRateLimiter rateLimiter;
+    private final Function<ImageQuery, AmazonEC2> clients;
+
+    public SdkImageSource(int pageSize, AdaptiveRateLimiter rateLimiter) {
+        this(pageSize, rateLimiter, SHARED_CLIENTS);
+    }
+
+    /**
+     * A source calling EC2 through the clients looked up for each query instead of the shared ones.
+     */
+    public SdkImageSource(int pageSize, AdaptiveRateLimiter rateLimiter, Function<ImageQuery, AmazonEC2> clients) {
+        this.pageSize = pageSize;
+        this.rateLimiter = rateLimiter;
+        this.clients = clients;
+    }
+
+    public static SdkImageSource fromSystemProperties() {
+        return new SdkImageSource(Integer.getInteger("ami.poller.fetch.page.size", 1000), AdaptiveRateLimiter.shared());
+    }
+
+    @Override
+    public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+        scan(imageQuery, pageSize, visitor);
+    }
+
+    @Override
+    public void scan(ImageQuery imageQuery, int firstPageSize, ImageVisitor visitor) {
+        String credentialsId = CredentialsProviders.credentialsId(imageQuery.getRoleArn());
+        final AmazonEC2 amazonEC2Client = clients.apply(imageQuery);
+        int maxResults = Math.min(firstPageSize, pageSize);
+        String nextToken = null;
+        do {
+            final DescribeImagesRequest describeImagesRequest = imageQuery.toDescribeImagesRequest()
+                    .withMaxResults(maxResults)
+                    .withNextToken(nextToken);
+            DescribeImagesResult describeImagesResult = rateLimiter.call(imageQuery.getRegion(), credentialsId, new Callable<DescribeImagesResult>() {
+                @Override
+                public DescribeImagesResult call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        return amazonEC2Client.describeImages(describeImagesRequest);
+                    } finally {
+                        DESCRIBE_IMAGES_LATENCY.recordSince(start);
+                    }
+                }
+            });
+            for (Image image : describeImagesResult.getImages()) {
+                if (!visitor.visit(image)) {
+                    return;
+                }
+            }
+            nextToken = describeImagesResult.getNextToken();
+            maxResults = (int) Math.min(pageSize, 2L * maxResults);
+        } while (nextToken != null && !nextToken.isEmpty());
+    }
+}
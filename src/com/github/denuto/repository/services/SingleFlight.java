@@ -0,0 +1,54 @@
+package com.github.denuto.repository.services;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call, callers arriving while it is in flight
+ * wait for and share its result (or its exception). Once the call completes the next caller for the key starts afresh.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    public V execute(K key, Callable<V> call) {
+        FutureTask<V> task = new FutureTask<>(call);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            existing = task;
+        } else {
+            coalescedCalls.incrementAndGet();
+        }
+
+        try {
+            return Uninterruptibles.getUninterruptibly(existing);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Call for " + key + " failed", e.getCause());
+        }
+    }
+
+    /**
+     * Number of calls that were answered by joining a call already in flight.
+     */
+    public long coalescedCalls() {
+        return coalescedCalls.get();
+    }
+}
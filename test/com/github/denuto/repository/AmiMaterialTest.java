@@ -3,6 +3,8 @@ package com.github.denuto.repository;
 
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
+import com.github.denuto.repository.metrics.LatencyHistogram;
+import com.github.denuto.repository.metrics.PluginMetrics;
 import com.github.denuto.repository.services.AmazonEC2ClientFactory;
 import com.google.common.collect.Lists;
 import com.google.gson.Gson;
@@ -22,11 +24,14 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNot.not;
+import static org.junit.Assert.fail;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.verify;
@@ -53,6 +58,26 @@ public class AmiMaterialTest {
         assertExists(goPluginApiResponse.responseBody(), "$.REGION.display-order");
     }
 
+    @Test
+    public void shouldTimeHandledRequestsAndCountTheirFailures() throws Exception {
+        LatencyHistogram latency = PluginMetrics.shared().histogram("handle.validate-package-configuration");
+        LongAdder errors = PluginMetrics.shared().counter("handle.validate-package-configuration.errors");
+        long handled = latency.count();
+        long failed = errors.sum();
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "validate-package-configuration");
+        goPluginApiRequest.setRequestBody("not json");
+
+        try {
+            amiMaterial.handle(goPluginApiRequest);
+            fail("a request that cannot be decoded should fail");
+        } catch (RuntimeException e) {
+            // counted below
+        }
+
+        assertThat(latency.count(), is(handled + 1));
+        assertThat(errors.sum(), is(failed + 1));
+    }
+
     @Test
     public void happyCaseGeneratingPackageConfiguration() throws Exception {
         GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(new DefaultGoPluginApiRequest("package-repository", "1.0", "package-configuration"));
@@ -121,6 +146,42 @@ public class AmiMaterialTest {
         assertJsonValue(goPluginApiResponse.responseBody(), "$[0].message", "Region is required");
     }
 
+    @Test
+    public void shouldGenerateAnErrorIfAnOwnerIsNotAnAccountIdOrAlias() throws Exception {
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "validate-repository-configuration");
+        goPluginApiRequest.setRequestBody("{\"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"},\"OWNERS\":{\"value\":\"self, 12345\"}}}");
+
+        GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(goPluginApiRequest);
+
+        assertThat(goPluginApiResponse.responseCode(), is(200));
+        assertJsonValue(goPluginApiResponse.responseBody(), "$[0].key", "OWNERS");
+        assertJsonValue(goPluginApiResponse.responseBody(), "$[0].message", "Invalid owner found: 12345 (must be an AWS account id, self, amazon or aws-marketplace)");
+    }
+
+    @Test
+    public void shouldGenerateAnErrorIfAnExecutableByUserIsNotAnAccountIdOrAlias() throws Exception {
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "validate-repository-configuration");
+        goPluginApiRequest.setRequestBody("{\"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"},\"EXECUTABLE_BY\":{\"value\":\"123456789012,amazon\"}}}");
+
+        GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(goPluginApiRequest);
+
+        assertThat(goPluginApiResponse.responseCode(), is(200));
+        assertJsonValue(goPluginApiResponse.responseBody(), "$[0].key", "EXECUTABLE_BY");
+        assertJsonValue(goPluginApiResponse.responseBody(), "$[0].message", "Invalid executable by user found: amazon (must be an AWS account id, self or all)");
+    }
+
+    @Test
+    public void shouldAcceptOwnersAndExecutableByUsersThatAreAccountIdsOrAliases() throws Exception {
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "validate-repository-configuration");
+        goPluginApiRequest.setRequestBody("{\"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"}," +
+                "\"OWNERS\":{\"value\":\"123456789012,self,amazon,aws-marketplace\"},\"EXECUTABLE_BY\":{\"value\":\"123456789012,self,all\"}}}");
+
+        GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(goPluginApiRequest);
+
+        assertThat(goPluginApiResponse.responseCode(), is(200));
+        assertThat(goPluginApiResponse.responseBody(), is(""));
+    }
+
     @Test
     public void happyCaseGeneratingSuccessForValidatePackageConfiguration() throws Exception {
         DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "validate-package-configuration");
@@ -214,6 +275,18 @@ public class AmiMaterialTest {
         assertJsonValue(goPluginApiResponse.responseBody(), "$.status", "failure");
     }
 
+    @Test
+    public void shouldGenerateFailureIfNoRegionIsConfigured() throws Exception {
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "check-repository-connection");
+        goPluginApiRequest.setRequestBody("{\"repository-configuration\":{\"REGION\":{\"value\":\" , \"}}}");
+
+        GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(goPluginApiRequest);
+
+        assertThat(goPluginApiResponse.responseCode(), is(200));
+        assertJsonValue(goPluginApiResponse.responseBody(), "$.status", "failure");
+        assertJsonValue(goPluginApiResponse.responseBody(), "$.messages[0]", "No region configured");
+    }
+
     @Test
     public void happyCaseCheckingPackageConnection() throws Exception {
         AmazonEC2Client amazonEC2ClientMock = Mockito.mock(AmazonEC2Client.class);
@@ -309,6 +382,104 @@ public class AmiMaterialTest {
         assertJsonValue(goPluginApiResponse.responseBody(), "$.status", "success");
     }
 
+    @Test
+    public void shouldTranslateTheTagVirtualizationAndRootDeviceTypeIntoEc2Filters() throws Exception {
+        AmazonEC2Client amazonEC2ClientMock = Mockito.mock(AmazonEC2Client.class);
+        when(amazonEC2ClientMock.describeImages(any(DescribeImagesRequest.class))).thenReturn(new DescribeImagesResult().withImages(new Image().withImageId("ami-123456")));
+        ArgumentCaptor<DescribeImagesRequest> argument = ArgumentCaptor.forClass(DescribeImagesRequest.class);
+        PowerMockito.mockStatic(AmazonEC2ClientFactory.class);
+        given(AmazonEC2ClientFactory.newInstance("us-east-1")).willReturn(amazonEC2ClientMock);
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "check-package-connection");
+        goPluginApiRequest.setRequestBody("" +
+                "{" +
+                "   \"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"}}, " +
+                "   \"package-configuration\":" +
+                "   {" +
+                "       \"AMI_SPEC\":{\"value\":\"amispec\"}," +
+                "       \"TAG\":{\"value\":\"team=web=blue\"}," +
+                "       \"VIRTUALIZATION_TYPE\":{\"value\":\"hvm\"}," +
+                "       \"ROOT_DEVICE_TYPE\":{\"value\":\"ebs\"}" +
+                "   }" +
+                "}");
+
+        amiMaterial.handle(goPluginApiRequest);
+
+        verify(amazonEC2ClientMock).describeImages(argument.capture());
+        assertThat(argument.getValue().getFilters(), hasItems(
+                new Filter("tag:team", Lists.newArrayList("web=blue")),
+                new Filter("virtualization-type", Lists.newArrayList("hvm")),
+                new Filter("root-device-type", Lists.newArrayList("ebs"))
+        ));
+        assertThat(argument.getValue().getOwners(), is((List<String>) Lists.newArrayList("self")));
+    }
+
+    @Test
+    public void shouldGenerateErrorIfTagIsNotAKeyValuePair() throws Exception {
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "validate-package-configuration");
+        goPluginApiRequest.setRequestBody("{\"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"}}, \"package-configuration\":{\"AMI_SPEC\":{\"value\":\"ami-1234\"}, \"TAG\":{\"value\":\"team\"}}}");
+
+        GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(goPluginApiRequest);
+
+        assertThat(goPluginApiResponse.responseBody(), is(AmiMaterial.VALIDATE_PACKAGE_CONFIG_INVALID_TAG_VALUE));
+    }
+
+    @Test
+    public void shouldRejectATagThatIsNotAKeyValuePairWhenLookingUpImages() throws Exception {
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "latest-revision");
+        goPluginApiRequest.setRequestBody("{\"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"}}, \"package-configuration\":{\"AMI_SPEC\":{\"value\":\"ami-1234\"}, \"TAG\":{\"value\":\"team\"}}}");
+
+        try {
+            amiMaterial.handle(goPluginApiRequest);
+            fail("a tag without a key should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("Tag must be given as key=value, was team"));
+        }
+    }
+
+    @Test
+    public void shouldLookUpImagesOwnedByTheConfiguredOwners() throws Exception {
+        AmazonEC2Client amazonEC2ClientMock = Mockito.mock(AmazonEC2Client.class);
+        when(amazonEC2ClientMock.describeImages(any(DescribeImagesRequest.class))).thenReturn(new DescribeImagesResult().withImages(new Image().withImageId("ami-123456")));
+        ArgumentCaptor<DescribeImagesRequest> argument = ArgumentCaptor.forClass(DescribeImagesRequest.class);
+        PowerMockito.mockStatic(AmazonEC2ClientFactory.class);
+        given(AmazonEC2ClientFactory.newInstance("us-east-1")).willReturn(amazonEC2ClientMock);
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "check-package-connection");
+        goPluginApiRequest.setRequestBody("" +
+                "{" +
+                "   \"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"},\"OWNERS\":{\"value\":\"amazon, 123456789012\"},\"EXECUTABLE_BY\":{\"value\":\"all\"}}, " +
+                "   \"package-configuration\":{\"AMI_SPEC\":{\"value\":\"amispec\"}}" +
+                "}");
+
+        amiMaterial.handle(goPluginApiRequest);
+
+        verify(amazonEC2ClientMock).describeImages(argument.capture());
+        assertThat(argument.getValue().getOwners(), is((List<String>) Lists.newArrayList("123456789012", "amazon")));
+        assertThat(argument.getValue().getExecutableUsers(), is((List<String>) Lists.newArrayList("all")));
+    }
+
+    @Test
+    public void shouldLookUpTheCatalogueWithTheCatalogueOwnersRatherThanSelf() throws Exception {
+        AmazonEC2Client amazonEC2ClientMock = Mockito.mock(AmazonEC2Client.class);
+        when(amazonEC2ClientMock.describeImages(any(DescribeImagesRequest.class))).thenReturn(new DescribeImagesResult().withImages(
+                new Image().withImageId("ami-1").withName("amispec 1").withOwnerId("123456789012").withState("available").withCreationDate("2015-11-12T18:04:28.000Z")));
+        ArgumentCaptor<DescribeImagesRequest> argument = ArgumentCaptor.forClass(DescribeImagesRequest.class);
+        PowerMockito.mockStatic(AmazonEC2ClientFactory.class);
+        given(AmazonEC2ClientFactory.newInstance("us-east-1")).willReturn(amazonEC2ClientMock);
+        DefaultGoPluginApiRequest goPluginApiRequest = new DefaultGoPluginApiRequest("package-repository", "1.0", "latest-revision");
+        goPluginApiRequest.setRequestBody("" +
+                "{" +
+                "   \"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"},\"CATALOGUE_OWNERS\":{\"value\":\"123456789012\"}}, " +
+                "   \"package-configuration\":{\"AMI_SPEC\":{\"value\":\"amispec*\"}}" +
+                "}");
+
+        GoPluginApiResponse goPluginApiResponse = amiMaterial.handle(goPluginApiRequest);
+
+        verify(amazonEC2ClientMock).describeImages(argument.capture());
+        assertThat(argument.getValue().getOwners(), is((List<String>) Lists.newArrayList("123456789012")));
+        assertThat(argument.getValue().getFilters(), hasItems(new Filter("owner-id", Lists.newArrayList("123456789012"))));
+        assertJsonValue(goPluginApiResponse.responseBody(), "$.revision", "ami-1");
+    }
+
     @Test
     public void happyCaseGettingLatestRevision() throws Exception {
         AmazonEC2Client amazonEC2ClientMock = Mockito.mock(AmazonEC2Client.class);
@@ -0,0 +1,103 @@
+package com.github.denuto.repository.json;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageRecord;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PackageRevisionEncoderTest {
+
+    private static final List<String> NO_TAGS = Collections.emptyList();
+
+    private final PackageRevisionEncoder encoder = new PackageRevisionEncoder("https://go.example.com/");
+
+    private final ImageRecord imageRecord = ImageRecord.of(new Image()
+            .withImageId("ami-1")
+            .withOwnerId("123456789012")
+            .withDescription("Built from \"master\"\nby ci")
+            .withCreationDate("2015-11-12T18:04:29.000Z")
+            .withTags(
+                    new Tag("pipelineName", "ami"),
+                    new Tag("pipelineCounter", "12"),
+                    new Tag("stageName", "bake"),
+                    new Tag("stageCounter", "1"),
+                    new Tag("jobName", "packer"),
+                    new Tag("build-number", "42")));
+
+    @Test
+    public void shouldEncodeRevisionWithEscapedFields() throws Exception {
+        String json = encoder.encode("package", imageRecord, "us-east-1", NO_TAGS);
+
+        assertThat(JsonPath.compile("$.revision").<String>read(json), is("ami-1"));
+        assertThat(JsonPath.compile("$.timestamp").<String>read(json), is("2015-11-12T18:04:29.000Z"));
+        assertThat(JsonPath.compile("$.user").<String>read(json), is("123456789012"));
+        assertThat(JsonPath.compile("$.revisionComment").<String>read(json), is("Built from \"master\"\nby ci"));
+    }
+
+    @Test
+    public void shouldBuildTrackbackUrlFromConfiguredBaseUrlAndGoTags() throws Exception {
+        String json = encoder.encode("package", imageRecord, "us-east-1", NO_TAGS);
+
+        assertThat(JsonPath.compile("$.trackbackUrl").<String>read(json), is("https://go.example.com/go/tab/build/detail/ami/12/bake/1/packer"));
+    }
+
+    @Test
+    public void shouldReportSourceRegionInRevisionData() throws Exception {
+        String json = encoder.encode("package", imageRecord, "eu-west-1", NO_TAGS);
+
+        assertThat(JsonPath.compile("$.data.SOURCE_REGION").<String>read(json), is("eu-west-1"));
+    }
+
+    @Test
+    public void shouldPublishConfiguredTagsAsRevisionData() throws Exception {
+        String json = encoder.encode("package", imageRecord, "us-east-1", Arrays.asList("build-number", "jobName", "missing"));
+
+        assertThat(JsonPath.compile("$.data.TAG_BUILD_NUMBER").<String>read(json), is("42"));
+        assertThat(JsonPath.compile("$.data.TAG_JOBNAME").<String>read(json), is("packer"));
+        assertThat(JsonPath.compile("$.data").<Map<String, Object>>read(json).size(), is(3));
+    }
+
+    @Test
+    public void shouldReuseEncodedRevisionForSamePackageAndImage() throws Exception {
+        String first = encoder.encode("package", imageRecord, "us-east-1", NO_TAGS);
+        List<Tag> reorderedTags = new ArrayList<>(imageRecord.getImage().getTags());
+        Collections.reverse(reorderedTags);
+
+        assertThat(encoder.encode("package", ImageRecord.of(imageRecord.getImage().clone().withTags(reorderedTags)), "us-east-1", NO_TAGS), sameInstance(first));
+        assertThat(encoder.encode("other-package", imageRecord, "us-east-1", NO_TAGS), is(first));
+    }
+
+    @Test
+    public void shouldEncodeAnImageAfreshOnceItsTagsOrDescriptionChanged() throws Exception {
+        String first = encoder.encode("package", imageRecord, "us-east-1", Collections.singletonList("build-number"));
+        Image retagged = imageRecord.getImage().clone().withTags(Collections.singletonList(new Tag("build-number", "43")));
+        Image redescribed = imageRecord.getImage().clone().withDescription("Rebuilt");
+
+        String afterRetagging = encoder.encode("package", ImageRecord.of(retagged), "us-east-1", Collections.singletonList("build-number"));
+        String afterRedescribing = encoder.encode("package", ImageRecord.of(redescribed), "us-east-1", Collections.singletonList("build-number"));
+
+        assertThat(JsonPath.compile("$.data.TAG_BUILD_NUMBER").<String>read(first), is("42"));
+        assertThat(JsonPath.compile("$.data.TAG_BUILD_NUMBER").<String>read(afterRetagging), is("43"));
+        assertThat(JsonPath.compile("$.revisionComment").<String>read(afterRedescribing), is("Rebuilt"));
+    }
+
+    @Test
+    public void shouldEncodeTheSourceRegionOfEachRegionTheImageIsFoundIn() throws Exception {
+        encoder.encode("package", imageRecord, "us-east-1", NO_TAGS);
+
+        String json = encoder.encode("package", imageRecord, "eu-west-1", NO_TAGS);
+
+        assertThat(JsonPath.compile("$.data.SOURCE_REGION").<String>read(json), is("eu-west-1"));
+    }
+}
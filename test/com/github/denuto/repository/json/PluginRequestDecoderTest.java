@@ -0,0 +1,56 @@
+package com.github.denuto.repository.json;
+
+import com.github.denuto.repository.models.LatestPackageRevisionSinceMessage;
+import com.github.denuto.repository.models.ValidatePackageConfigurationMessage;
+import com.github.denuto.repository.models.ValidateRepositoryConfigurationMessage;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PluginRequestDecoderTest {
+
+    @Test
+    public void shouldDecodePropertyValuesAndSkipEverythingElse() throws Exception {
+        ValidatePackageConfigurationMessage message = PluginRequestDecoder.decodeValidatePackageConfiguration("" +
+                "{" +
+                "   \"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\", \"secure\":false}}, " +
+                "   \"package-configuration\":{\"AMI_SPEC\":{\"value\":\"amispec\"}, \"ARCH\":{\"value\":null}}," +
+                "   \"unknown\":[1, 2, {\"value\":\"ignored\"}]" +
+                "}");
+
+        assertThat(message.getRepositoryConfiguration().getProperty("REGION").value(), is("us-east-1"));
+        assertThat(message.getPackageConfiguration().getProperty("AMI_SPEC").value(), is("amispec"));
+        assertThat(message.getPackageConfiguration().getProperty("ARCH").value(), is(nullValue()));
+        assertThat(message.getPackageConfiguration().getProperty("TAG_KEY"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDecodeMissingConfigurationAsEmpty() throws Exception {
+        ValidateRepositoryConfigurationMessage message = PluginRequestDecoder.decodeValidateRepositoryConfiguration("{}");
+
+        assertThat(message.getRepositoryConfiguration().getProperty("REGION"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDecodePreviousRevision() throws Exception {
+        LatestPackageRevisionSinceMessage message = PluginRequestDecoder.decodeLatestPackageRevisionSince("" +
+                "{" +
+                "   \"repository-configuration\":{\"REGION\":{\"value\":\"us-east-1\"}}, " +
+                "   \"package-configuration\":{\"AMI_SPEC\":{\"value\":\"amispec\"}}," +
+                "   \"previous-revision\":{" +
+                "       \"revision\":\"ami-1\"," +
+                "       \"timestamp\":\"2015-11-12T18:04:28.000Z\"," +
+                "       \"data\":{\"SOURCE\":\"ci\"}" +
+                "   }" +
+                "}");
+
+        assertThat(message.getPreviousRevision().getRevision(), is("ami-1"));
+        assertThat(message.getPreviousRevision().getTimestamp().getMillis(), is(new DateTime(2015, 11, 12, 18, 4, 28, DateTimeZone.UTC).getMillis()));
+        assertThat(message.getPreviousRevision().getDataFor("SOURCE"), is("ci"));
+        assertThat(message.getPackageConfiguration().getProperty("AMI_SPEC").value(), is("amispec"));
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.denuto.repository.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class JmxMetricsTest {
+
+    private final PluginMetrics metrics = new PluginMetrics();
+    private final JmxMetrics jmxMetrics = new JmxMetrics(metrics);
+    private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    @After
+    public void tearDown() {
+        jmxMetrics.unregister();
+    }
+
+    @Test
+    public void shouldExposeMetricsAsMBeanAttributes() throws Exception {
+        metrics.counter("ec2.throttles").add(3);
+        metrics.histogram("handle.latest-revision").record(TimeUnit.MILLISECONDS.toNanos(5));
+
+        jmxMetrics.register();
+
+        ObjectName objectName = new ObjectName("com.github.denuto.ami-poller:type=Metrics");
+        assertThat(mBeanServer.getAttribute(objectName, "ec2.throttles"), is((Object) 3L));
+        assertThat(mBeanServer.getAttribute(objectName, "handle.latest-revision.count"), is((Object) 1L));
+        assertThat(mBeanServer.getMBeanInfo(objectName).getAttributes().length, is(7));
+    }
+
+    @Test
+    public void shouldReportOperationsAsMissingMethods() throws Exception {
+        jmxMetrics.register();
+
+        try {
+            mBeanServer.invoke(new ObjectName("com.github.denuto.ami-poller:type=Metrics"), "reset", new Object[0], new String[0]);
+            fail("metrics have no operations");
+        } catch (ReflectionException e) {
+            assertThat(e.getTargetException() instanceof NoSuchMethodException, is(true));
+            assertThat(e.getTargetException().getMessage(), is("reset"));
+        }
+    }
+
+    @Test
+    public void shouldReplaceTheMBeanOfAPreviouslyLoadedPlugin() throws Exception {
+        new JmxMetrics(new PluginMetrics()).register();
+        metrics.counter("ec2.throttles").increment();
+
+        jmxMetrics.register();
+
+        assertThat(mBeanServer.getAttribute(new ObjectName("com.github.denuto.ami-poller:type=Metrics"), "ec2.throttles"), is((Object) 1L));
+    }
+}
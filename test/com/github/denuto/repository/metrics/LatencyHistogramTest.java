@@ -0,0 +1,42 @@
+package com.github.denuto.repository.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldReportNothingBeforeAnyDurationIsRecorded() throws Exception {
+        assertThat(histogram.count(), is(0L));
+        assertThat(histogram.meanMillis(), is(0.0));
+        assertThat(histogram.percentileMillis(0.99), is(0.0));
+    }
+
+    @Test
+    public void shouldReportCountMeanAndMaximum() throws Exception {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(30));
+
+        assertThat(histogram.count(), is(2L));
+        assertThat(histogram.meanMillis(), is(20.0));
+        assertThat(histogram.maxMillis(), is(30.0));
+    }
+
+    @Test
+    public void shouldReportPercentilesWithinAFactorOfTwo() throws Exception {
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+
+        assertThat(histogram.percentileMillis(0.5) >= 1 && histogram.percentileMillis(0.5) < 2, is(true));
+        assertThat(histogram.percentileMillis(0.99) < 2, is(true));
+        assertThat(histogram.percentileMillis(1), is(1000.0));
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.denuto.repository.models;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CreationDateWindowTest {
+
+    @Test
+    public void shouldCoverEveryDaySinceTheWatermarkWithDayPrefixes() throws Exception {
+        assertThat(CreationDateWindow.prefixesSince(DateTime.parse("2015-11-12T18:04:28.000Z"), DateTime.parse("2015-11-14T01:00:00.000Z")),
+                is(Arrays.asList("2015-11-12*", "2015-11-13*", "2015-11-14*", "2015-11-15*")));
+    }
+
+    @Test
+    public void shouldUseUtcDays() throws Exception {
+        assertThat(CreationDateWindow.prefixesSince(DateTime.parse("2015-11-12T23:30:00.000-05:00"), DateTime.parse("2015-11-13T05:00:00.000Z")),
+                is(Arrays.asList("2015-11-13*", "2015-11-14*")));
+    }
+
+    @Test
+    public void shouldFallBackToMonthPrefixesForLongerWindows() throws Exception {
+        assertThat(CreationDateWindow.prefixesSince(DateTime.parse("2015-11-12T18:04:28.000Z"), DateTime.parse("2016-02-14T01:00:00.000Z")),
+                hasItems("2015-11*", "2015-12*", "2016-01*", "2016-02*"));
+    }
+
+    @Test
+    public void shouldNotNarrowWindowsThatAreTooLongOrUnknown() throws Exception {
+        assertThat(CreationDateWindow.prefixesSince(DateTime.parse("2012-11-12T18:04:28.000Z"), DateTime.parse("2016-02-14T01:00:00.000Z")), is(Collections.<String>emptyList()));
+        assertThat(CreationDateWindow.prefixesSince(null, DateTime.parse("2016-02-14T01:00:00.000Z")), is(Collections.<String>emptyList()));
+    }
+}
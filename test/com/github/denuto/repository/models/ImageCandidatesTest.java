@@ -0,0 +1,103 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageCandidatesTest {
+
+    @Test
+    public void shouldKeepOnlyTheMostRecentlyCreatedImagesInListingOrder() throws Exception {
+        ImageCandidates candidates = new ImageCandidates(2);
+        candidates.add(image("ami-3", "2016-01-03T00:00:00.000Z"));
+        candidates.add(image("ami-1", "2016-01-01T00:00:00.000Z"));
+        candidates.add(image("ami-4", "2016-01-04T00:00:00.000Z"));
+        candidates.add(image("ami-2", "2016-01-02T00:00:00.000Z"));
+
+        ImageTimeline timeline = candidates.toTimeline();
+
+        assertThat(candidates.seen(), is(4L));
+        assertThat(imageIds(timeline), is(Arrays.asList("ami-3", "ami-4")));
+        assertThat(timeline.completeAfterMillis(), is(millis("2016-01-02T00:00:00.000Z")));
+    }
+
+    @Test
+    public void shouldBeCompleteWhileNoImageWasEvicted() throws Exception {
+        ImageCandidates candidates = new ImageCandidates(2);
+        candidates.add(image("ami-1", "2016-01-01T00:00:00.000Z"));
+        candidates.add(image("ami-2", "2016-01-02T00:00:00.000Z"));
+
+        ImageTimeline timeline = candidates.toTimeline();
+
+        assertThat(timeline.completeAfterMillis(), is(Long.MIN_VALUE));
+        assertThat(timeline.isCompleteAfter(millis("2015-01-01T00:00:00.000Z")), is(true));
+    }
+
+    @Test
+    public void shouldEvictTheLaterListedOfImagesCreatedAtTheSameTime() throws Exception {
+        ImageCandidates candidates = new ImageCandidates(2);
+        candidates.add(image("ami-1", "2016-01-01T00:00:00.000Z"));
+        candidates.add(image("ami-2", "2016-01-01T00:00:00.000Z"));
+        candidates.add(image("ami-3", "2016-01-01T00:00:00.000Z"));
+
+        ImageTimeline timeline = candidates.toTimeline();
+
+        assertThat(imageIds(timeline), is(Arrays.asList("ami-1", "ami-2")));
+        assertThat(timeline.completeAfterMillis(), is(millis("2016-01-01T00:00:00.000Z")));
+    }
+
+    @Test
+    public void shouldNotBeCompleteAtTheCreationOfAnEvictedImageThatTiesWithARetainedOne() throws Exception {
+        ImageCandidates candidates = new ImageCandidates(2);
+        candidates.add(image("ami-1", "2016-01-01T00:00:00.000Z"));
+        candidates.add(image("ami-2", "2016-01-02T00:00:00.000Z"));
+        candidates.add(image("ami-3", "2016-01-01T00:00:00.000Z"));
+
+        ImageTimeline timeline = candidates.toTimeline();
+
+        assertThat(imageIds(timeline), is(Arrays.asList("ami-1", "ami-2")));
+        assertThat(timeline.isCompleteAfter(millis("2016-01-01T00:00:00.000Z") - 1), is(false));
+        assertThat(timeline.isCompleteAfter(millis("2016-01-01T00:00:00.000Z")), is(true));
+        assertThat(timeline.firstCreatedAfter(millis("2016-01-01T00:00:00.000Z")).getImage().getImageId(), is("ami-2"));
+    }
+
+    @Test
+    public void shouldAccountForImagesOfferedButTooOldToBeRetained() throws Exception {
+        ImageCandidates candidates = new ImageCandidates(2);
+        assertThat(candidates.offer(millis("2016-01-03T00:00:00.000Z")), is(true));
+        candidates.add(image("ami-3", "2016-01-03T00:00:00.000Z"));
+        candidates.add(image("ami-2", "2016-01-02T00:00:00.000Z"));
+
+        assertThat(candidates.offer(millis("2016-01-01T00:00:00.000Z")), is(false));
+        assertThat(candidates.offer(millis("2016-01-02T00:00:00.000Z")), is(false));
+        assertThat(candidates.offer(millis("2016-01-04T00:00:00.000Z")), is(true));
+
+        ImageTimeline timeline = candidates.toTimeline();
+        assertThat(candidates.seen(), is(4L));
+        assertThat(imageIds(timeline), is(Arrays.asList("ami-3", "ami-2")));
+        assertThat(timeline.completeAfterMillis(), is(millis("2016-01-02T00:00:00.000Z")));
+    }
+
+    private static List<String> imageIds(ImageTimeline timeline) {
+        List<String> imageIds = new ArrayList<>();
+        for (ImageRecord record : timeline.records()) {
+            imageIds.add(record.getImage().getImageId());
+        }
+        return imageIds;
+    }
+
+    private static Image image(String imageId, String creationDate) {
+        return new Image().withImageId(imageId).withCreationDate(creationDate);
+    }
+
+    private static long millis(String creationDate) {
+        return new DateTime(creationDate).getMillis();
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageRecordTest {
+
+    @Test
+    public void shouldParseTheCreationDateIntoEpochMillis() throws Exception {
+        ImageRecord record = ImageRecord.of(new Image().withImageId("ami-1").withCreationDate("2015-11-12T18:04:28.000Z"));
+
+        assertThat(record.getCreationMillis(), is(new DateTime(2015, 11, 12, 18, 4, 28, DateTimeZone.UTC).getMillis()));
+        assertThat(record.getImage().getImageId(), is("ami-1"));
+    }
+
+    @Test
+    public void shouldTakeTheOffsetOfTheCreationDateIntoAccount() throws Exception {
+        ImageRecord record = ImageRecord.of(new Image().withCreationDate("2015-11-12T20:04:28.000+02:00"));
+
+        assertThat(record.getCreationMillis(), is(new DateTime(2015, 11, 12, 18, 4, 28, DateTimeZone.UTC).getMillis()));
+    }
+
+    @Test
+    public void shouldSortImagesWithoutACreationDateBeforeEveryOtherImage() throws Exception {
+        ImageRecord record = ImageRecord.of(new Image().withImageId("ami-1"));
+
+        assertThat(record.getCreationMillis(), is(Long.MIN_VALUE));
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.google.common.base.Predicate;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageTimelineTest {
+
+    private final ImageTimeline timeline = ImageTimeline.of(Arrays.asList(
+            image("ami-2", "2016-01-02T00:00:00.000Z"),
+            image("ami-4", "2016-01-04T00:00:00.000Z"),
+            image("ami-1", "2016-01-01T00:00:00.000Z"),
+            image("ami-3", "2016-01-03T00:00:00.000Z")));
+
+    @Test
+    public void shouldSelectTheMostRecentlyCreatedImage() throws Exception {
+        assertThat(imageId(timeline.latest()), is("ami-4"));
+        assertThat(timeline.size(), is(4));
+        assertThat(imageId(timeline.records().get(0)), is("ami-2"));
+    }
+
+    @Test
+    public void shouldFindTheFirstImageCreatedStrictlyAfterAnInstant() throws Exception {
+        assertThat(imageId(timeline.firstCreatedAfter(millis("2015-12-31T00:00:00.000Z"))), is("ami-1"));
+        assertThat(imageId(timeline.firstCreatedAfter(millis("2016-01-02T00:00:00.000Z"))), is("ami-3"));
+        assertThat(imageId(timeline.firstCreatedAfter(millis("2016-01-03T12:00:00.000Z"))), is("ami-4"));
+        assertThat(timeline.firstCreatedAfter(millis("2016-01-04T00:00:00.000Z")), is(nullValue()));
+    }
+
+    @Test
+    public void shouldPreferTheImageListedFirstAmongImagesCreatedAtTheSameTime() throws Exception {
+        ImageTimeline tied = ImageTimeline.of(Arrays.asList(
+                image("ami-1", "2016-01-01T00:00:00.000Z"),
+                image("ami-3a", "2016-01-03T00:00:00.000Z"),
+                image("ami-2a", "2016-01-02T00:00:00.000Z"),
+                image("ami-3b", "2016-01-03T00:00:00.000Z"),
+                image("ami-2b", "2016-01-02T00:00:00.000Z")));
+
+        assertThat(imageId(tied.latest()), is("ami-3a"));
+        assertThat(imageId(tied.firstCreatedAfter(millis("2016-01-01T00:00:00.000Z"))), is("ami-2a"));
+        assertThat(imageId(tied.firstCreatedAfter(millis("2016-01-02T00:00:00.000Z"))), is("ami-3a"));
+    }
+
+    @Test
+    public void shouldOnlyIndexTheImagesByCreationTimeWhenLookingForTheFirstOneAfterAnInstant() throws Exception {
+        timeline.latest();
+        assertThat(index(timeline), is(nullValue()));
+
+        timeline.firstCreatedAfter(millis("2016-01-04T00:00:00.000Z"));
+        assertThat(index(timeline), is(nullValue()));
+
+        timeline.firstCreatedAfter(millis("2016-01-01T00:00:00.000Z"));
+        Object index = index(timeline);
+        assertThat(index, is(notNullValue()));
+
+        timeline.firstCreatedAfter(millis("2016-01-02T00:00:00.000Z"));
+        assertThat(index(timeline) == index, is(true));
+    }
+
+    @Test
+    public void shouldNeverSelectImagesWithoutACreationDateOverDatedOnes() throws Exception {
+        ImageTimeline undated = ImageTimeline.of(Arrays.asList(
+                new Image().withImageId("ami-undated"),
+                image("ami-1", "2016-01-01T00:00:00.000Z")));
+
+        assertThat(imageId(undated.latest()), is("ami-1"));
+        assertThat(imageId(undated.firstCreatedAfter(Long.MIN_VALUE)), is("ami-1"));
+    }
+
+    @Test
+    public void shouldFindNoImageCreatedAfterAnInstantAmongImagesWithoutACreationDate() throws Exception {
+        ImageTimeline undated = ImageTimeline.of(Arrays.asList(new Image().withImageId("ami-1"), new Image().withImageId("ami-2")));
+
+        assertThat(imageId(undated.latest()), is("ami-1"));
+        assertThat(undated.firstCreatedAfter(Long.MIN_VALUE), is(nullValue()));
+    }
+
+    @Test
+    public void shouldHaveNoLatestImageWhenEmpty() throws Exception {
+        ImageTimeline empty = ImageTimeline.of(Collections.<Image>emptyList());
+
+        assertThat(empty.isEmpty(), is(true));
+        assertThat(empty.latest(), is(nullValue()));
+        assertThat(empty.firstCreatedAfter(Long.MIN_VALUE), is(nullValue()));
+        assertThat(empty.isCompleteAfter(Long.MIN_VALUE), is(true));
+    }
+
+    @Test
+    public void shouldKeepHowCompleteAndFreshItIsWhenFiltered() throws Exception {
+        ImageTimeline partial = ImageTimeline.ofRecords(timeline.records(), millis("2016-01-01T00:00:00.000Z")).fetchedAt(1000);
+
+        ImageTimeline filtered = partial.filter(new Predicate<Image>() {
+            @Override
+            public boolean apply(Image image) {
+                return !image.getImageId().equals("ami-4");
+            }
+        });
+
+        assertThat(imageId(filtered.latest()), is("ami-3"));
+        assertThat(filtered.completeAfterMillis(), is(millis("2016-01-01T00:00:00.000Z")));
+        assertThat(filtered.isCompleteAfter(millis("2015-12-31T00:00:00.000Z")), is(false));
+        assertThat(filtered.fetchedMillis(), is(1000L));
+    }
+
+    private static Object index(ImageTimeline timeline) throws Exception {
+        Field index = ImageTimeline.class.getDeclaredField("byCreationTime");
+        index.setAccessible(true);
+        return index.get(timeline);
+    }
+
+    private static String imageId(ImageRecord record) {
+        return record.getImage().getImageId();
+    }
+
+    private static Image image(String imageId, String creationDate) {
+        return new Image().withImageId(imageId).withCreationDate(creationDate);
+    }
+
+    private static long millis(String creationDate) {
+        return new DateTime(creationDate).getMillis();
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.denuto.repository.models;
+
+import com.amazonaws.services.ec2.model.Tag;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TagProjectionTest {
+
+    @Test
+    public void shouldProjectValuesInKeyOrderInOnePass() throws Exception {
+        TagProjection tagProjection = new TagProjection(Arrays.asList("jobName", "pipelineName", "missing"));
+
+        String[] values = tagProjection.project(Arrays.asList(new Tag("pipelineName", "ami"), new Tag("Purpose", "ci"), new Tag("jobName", "packer")));
+
+        assertThat(values.length, is(3));
+        assertThat(values[0], is("packer"));
+        assertThat(values[1], is("ami"));
+        assertThat(values[2], is(nullValue()));
+    }
+
+    @Test
+    public void shouldDropDuplicateKeysAndKeepFirstTag() throws Exception {
+        TagProjection tagProjection = new TagProjection(Arrays.asList("jobName", "jobName"));
+
+        String[] values = tagProjection.project(Arrays.asList(new Tag("jobName", "first"), new Tag("jobName", "second")));
+
+        assertThat(tagProjection.keys().size(), is(1));
+        assertThat(tagProjection.position("jobName"), is(0));
+        assertThat(tagProjection.position("missing"), is(-1));
+        assertThat(values[0], is("first"));
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AdaptiveRateLimiterTest {
+
+    private final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter(1, 100, 3, 1);
+
+    @Test
+    public void shouldRetryThrottledCallsAtAHalvedRate() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+
+        String result = rateLimiter.call("us-east-1", "default", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (calls.incrementAndGet() < 3) {
+                    throw throttled();
+                }
+                return "images";
+            }
+        });
+
+        assertThat(result, is("images"));
+        assertThat(calls.get(), is(3));
+        assertThat(rateLimiter.rate("us-east-1", "default"), is(25.1));
+        assertThat(rateLimiter.rate("eu-west-1", "default"), is(100.0));
+    }
+
+    @Test
+    public void shouldNotGoBelowTheMinimumRate() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            try {
+                rateLimiter.call("us-east-1", "default", new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        throw throttled();
+                    }
+                });
+                fail("call should have stayed throttled");
+            } catch (AmazonServiceException e) {
+                assertThat(e.getErrorCode(), is("RequestLimitExceeded"));
+            }
+        }
+
+        assertThat(rateLimiter.rate("us-east-1", "default"), is(1.0));
+    }
+
+    @Test
+    public void shouldRethrowOtherFailuresWithoutRetrying() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            rateLimiter.call("us-east-1", "default", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    calls.incrementAndGet();
+                    AmazonServiceException exception = new AmazonServiceException("Not authorized");
+                    exception.setErrorCode("UnauthorizedOperation");
+                    exception.setStatusCode(403);
+                    throw exception;
+                }
+            });
+            fail("call should have failed");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("UnauthorizedOperation"));
+        }
+
+        assertThat(calls.get(), is(1));
+        assertThat(rateLimiter.rate("us-east-1", "default"), is(100.0));
+    }
+
+    @Test
+    public void shouldRecognizeThrottledDryRuns() throws Exception {
+        assertThat(AdaptiveRateLimiter.isThrottling(new AmazonClientException("Unrecognized service response for the dry-run request.", throttled())), is(true));
+        assertThat(AdaptiveRateLimiter.isThrottling(new AmazonClientException("Unable to execute HTTP request")), is(false));
+    }
+
+    @Test
+    public void shouldStopWaitingForTheBucketWhenInterrupted() throws Exception {
+        final AdaptiveRateLimiter slowRateLimiter = new AdaptiveRateLimiter(0.1, 0.1, 0, 1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                return "images";
+            }
+        };
+        slowRateLimiter.call("us-east-1", "default", call);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    slowRateLimiter.call("us-east-1", "default", call);
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+        });
+        waiting.start();
+        Thread.sleep(200);
+
+        waiting.interrupt();
+        waiting.join(1000);
+
+        assertThat(waiting.isAlive(), is(false));
+        assertThat(failure.get().getMessage(), is("Interrupted waiting to call EC2 in us-east-1"));
+        assertThat(calls.get(), is(1));
+    }
+
+    private static AmazonServiceException throttled() {
+        AmazonServiceException exception = new AmazonServiceException("Request limit exceeded.");
+        exception.setErrorCode("RequestLimitExceeded");
+        exception.setStatusCode(503);
+        return exception;
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AmazonEC2ClientFactoryTest {
+
+    private static final AWSCredentialsProvider CREDENTIALS = new AWSStaticCredentialsProvider(new BasicAWSCredentials("key", "secret"));
+
+    @After
+    public void tearDown() {
+        AmazonEC2ClientFactory.shutdown();
+    }
+
+    @Test
+    public void shouldShareTheClientOfARegionAndCredentialsIdentity() throws Exception {
+        AmazonEC2 client = AmazonEC2ClientFactory.newInstance("us-east-1", "default", CREDENTIALS);
+
+        assertThat(AmazonEC2ClientFactory.newInstance("us-east-1", "default", CREDENTIALS), is(sameInstance(client)));
+        assertThat(AmazonEC2ClientFactory.newInstance("eu-west-1", "default", CREDENTIALS), is(not(sameInstance(client))));
+    }
+
+    @Test
+    public void shouldKeepTheClientsOfEachCredentialsIdentityApart() throws Exception {
+        String roleArn = "arn:aws:iam::123456789012:role/ami-reader";
+        AmazonEC2 defaultClient = AmazonEC2ClientFactory.newInstance("us-east-1", "default", CREDENTIALS);
+        AmazonEC2 roleClient = AmazonEC2ClientFactory.newInstance("us-east-1", roleArn, CREDENTIALS);
+
+        assertThat(roleClient, is(not(sameInstance(defaultClient))));
+        assertThat(AmazonEC2ClientFactory.newInstance("us-east-1", roleArn, CREDENTIALS), is(sameInstance(roleClient)));
+    }
+
+    @Test
+    public void shouldShutDownEveryClientAndCreateThemAfreshAfterwards() throws Exception {
+        AmazonEC2 client = AmazonEC2ClientFactory.newInstance("us-east-1", "default", CREDENTIALS);
+
+        AmazonEC2ClientFactory.shutdown();
+
+        try {
+            client.describeImages(new DescribeImagesRequest());
+            fail("a client that was shut down should not send requests");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("shut down"));
+        }
+        assertThat(AmazonEC2ClientFactory.newInstance("us-east-1", "default", CREDENTIALS), is(not(sameInstance(client))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownRegions() throws Exception {
+        AmazonEC2ClientFactory.newInstance("us-east-9", "default", CREDENTIALS);
+    }
+
+    @Test
+    public void shouldConfigureClientsWithTheTransportProperties() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("ami.poller.ec2.connect.timeout.millis", "1000");
+        properties.setProperty("ami.poller.ec2.read.timeout.millis", "2000");
+        properties.setProperty("ami.poller.ec2.request.timeout.millis", "3000");
+        properties.setProperty("ami.poller.ec2.max.connections", "7");
+        properties.setProperty("ami.poller.ec2.connection.max.idle.millis", "4000");
+        properties.setProperty("ami.poller.ec2.connection.ttl.millis", "5000");
+        properties.setProperty("ami.poller.ec2.idle.connection.reaper", "false");
+        properties.setProperty("ami.poller.ec2.tcp.keep.alive", "true");
+        properties.setProperty("ami.poller.ec2.gzip", "true");
+        properties.setProperty("ami.poller.ec2.max.error.retries", "5");
+
+        ClientConfiguration clientConfiguration = AmazonEC2ClientFactory.clientConfiguration(properties);
+
+        assertThat(clientConfiguration.getConnectionTimeout(), is(1000));
+        assertThat(clientConfiguration.getSocketTimeout(), is(2000));
+        assertThat(clientConfiguration.getClientExecutionTimeout(), is(3000));
+        assertThat(clientConfiguration.getMaxConnections(), is(7));
+        assertThat(clientConfiguration.getConnectionMaxIdleMillis(), is(4000L));
+        assertThat(clientConfiguration.getConnectionTTL(), is(5000L));
+        assertThat(clientConfiguration.useReaper(), is(false));
+        assertThat(clientConfiguration.useTcpKeepAlive(), is(true));
+        assertThat(clientConfiguration.useGzip(), is(true));
+        assertThat(clientConfiguration.getRetryPolicy().getMaxErrorRetry(), is(5));
+    }
+
+    @Test
+    public void shouldDefaultToTheTimeoutsOfThePluginAndTheTransportOfTheSdk() throws Exception {
+        ClientConfiguration clientConfiguration = AmazonEC2ClientFactory.clientConfiguration(new Properties());
+
+        assertThat(clientConfiguration.getConnectionTimeout(), is(10000));
+        assertThat(clientConfiguration.getSocketTimeout(), is(30000));
+        assertThat(clientConfiguration.getClientExecutionTimeout(), is(60000));
+        assertThat(clientConfiguration.getMaxConnections(), is(ClientConfiguration.DEFAULT_MAX_CONNECTIONS));
+        assertThat(clientConfiguration.getConnectionTTL(), is(ClientConfiguration.DEFAULT_CONNECTION_TTL));
+        assertThat(clientConfiguration.useGzip(), is(false));
+        assertThat(clientConfiguration.getRetryPolicy().getMaxErrorRetry(), is(PredefinedRetryPolicies.DEFAULT_MAX_ERROR_RETRY));
+    }
+
+    @Test
+    public void shouldLeaveRetryingThrottledRequestsToTheRateLimiter() throws Exception {
+        ClientConfiguration clientConfiguration = AmazonEC2ClientFactory.clientConfiguration(new Properties());
+        AmazonServiceException throttled = new AmazonServiceException("Request limit exceeded.");
+        throttled.setErrorCode("RequestLimitExceeded");
+        throttled.setStatusCode(503);
+        AmazonServiceException unavailable = new AmazonServiceException("Service unavailable.");
+        unavailable.setErrorCode("Unavailable");
+        unavailable.setStatusCode(503);
+
+        assertThat(clientConfiguration.getRetryPolicy().getRetryCondition().shouldRetry(new DescribeImagesRequest(), throttled, 0), is(false));
+        assertThat(clientConfiguration.getRetryPolicy().getRetryCondition().shouldRetry(new DescribeImagesRequest(), unavailable, 0), is(true));
+    }
+}
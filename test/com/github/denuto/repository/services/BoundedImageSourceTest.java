@@ -0,0 +1,223 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageQuery;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BoundedImageSourceTest {
+
+    private static final ImageVisitor ANY_IMAGE = new ImageVisitor() {
+        @Override
+        public boolean visit(Image image) {
+            return true;
+        }
+    };
+
+    @Test
+    public void shouldHandScannedImagesToTheVisitor() throws Exception {
+        BoundedImageSource imageSource = new BoundedImageSource(new FakeImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                visitor.visit(new Image().withImageId("ami-1"));
+                visitor.visit(new Image().withImageId("ami-2"));
+            }
+        }, 2, 5000);
+        final List<String> imageIds = new ArrayList<>();
+
+        imageSource.scan(new ImageQuery("us-east-1"), new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                imageIds.add(image.getImageId());
+                return true;
+            }
+        });
+
+        assertThat(imageIds.size(), is(2));
+        assertThat(imageIds.get(1), is("ami-2"));
+    }
+
+    @Test
+    public void shouldCancelScansThatTimeOut() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        BoundedImageSource imageSource = new BoundedImageSource(new FakeImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, 1, 100);
+
+        try {
+            imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+            fail("scan should have timed out");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("Timed out after 100ms"));
+        }
+        assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void shouldNotRunMoreScansThanThereAreCallSlots() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        final BoundedImageSource imageSource = new BoundedImageSource(new FakeImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                int nowRunning = running.incrementAndGet();
+                synchronized (mostRunning) {
+                    mostRunning.set(Math.max(mostRunning.get(), nowRunning));
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        }, 2, 5000);
+        List<Thread> pollers = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Thread poller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+                }
+            });
+            poller.start();
+            pollers.add(poller);
+        }
+        for (Thread poller : pollers) {
+            poller.join();
+        }
+
+        assertThat(mostRunning.get(), is(2));
+    }
+
+    @Test
+    public void shouldKeepTheCallSlotOfACancelledScanUntilItsThreadStops() throws Exception {
+        final CountDownLatch stop = new CountDownLatch(1);
+        final AtomicInteger scans = new AtomicInteger();
+        BoundedImageSource imageSource = new BoundedImageSource(new FakeImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                if (scans.incrementAndGet() > 1) {
+                    return;
+                }
+                // a call that does not notice it was interrupted
+                while (true) {
+                    try {
+                        stop.await();
+                        return;
+                    } catch (InterruptedException e) {
+                        // keep waiting
+                    }
+                }
+            }
+        }, 1, 100);
+        try {
+            imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+            fail("scan should have timed out");
+        } catch (BoundedImageSource.CallTimeoutException e) {
+            assertThat(e.getMessage(), containsString("fetching"));
+        }
+
+        try {
+            imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+            fail("scan should have waited for the cancelled one to stop");
+        } catch (BoundedImageSource.CallTimeoutException e) {
+            assertThat(e.getMessage(), containsString("waiting for one of 1 EC2 call slots"));
+        }
+        stop.countDown();
+
+        imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+        assertThat(scans.get(), is(2));
+    }
+
+    @Test
+    public void shouldInterruptScansInFlightOnShutdown() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final BoundedImageSource imageSource = new BoundedImageSource(new FakeImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                if (started.getCount() == 0) {
+                    return;
+                }
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        }, 1, 5000);
+        Thread poller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+            }
+        });
+        poller.start();
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+
+        BoundedImageSource.shutdown();
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS), is(true));
+        poller.join();
+        imageSource.scan(new ImageQuery("us-east-1"), 5, ANY_IMAGE);
+    }
+
+    @Test
+    public void shouldAskForTheFirstPageSizeOfProbes() throws Exception {
+        final List<Integer> firstPageSizes = new ArrayList<>();
+        BoundedImageSource imageSource = new BoundedImageSource(new ImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                throw new AssertionError("scan without a first page size");
+            }
+
+            @Override
+            public void scan(ImageQuery imageQuery, int firstPageSize, ImageVisitor visitor) {
+                firstPageSizes.add(firstPageSize);
+            }
+        }, 1, 5000);
+
+        imageSource.scan(new ImageQuery("us-east-1"), 5, ANY_IMAGE);
+        imageSource.scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+
+        assertThat(firstPageSizes.get(0), is(5));
+        assertThat(firstPageSizes.get(1), is(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRethrowScanFailures() throws Exception {
+        new BoundedImageSource(new FakeImageSource() {
+            @Override
+            public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+                throw new IllegalArgumentException("region unavailable");
+            }
+        }, 1, 5000).scan(new ImageQuery("us-east-1"), ANY_IMAGE);
+    }
+
+    private abstract static class FakeImageSource implements ImageSource {
+        @Override
+        public void scan(ImageQuery imageQuery, int firstPageSize, ImageVisitor visitor) {
+            scan(imageQuery, visitor);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.models.ConnectionCheck;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConnectionCheckCacheTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final ConnectionCheckCache connectionChecks = new ConnectionCheckCache(60000, 5000, 20000, new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+    private final AtomicBoolean failing = new AtomicBoolean();
+    private final AtomicInteger dryRuns = new AtomicInteger();
+    private final Callable<ConnectionCheck> dryRun = new Callable<ConnectionCheck>() {
+        @Override
+        public ConnectionCheck call() throws Exception {
+            dryRuns.incrementAndGet();
+            return failing.get() ? ConnectionCheck.failed("UnauthorizedOperation") : ConnectionCheck.successful();
+        }
+    };
+
+    @Test
+    public void shouldReuseSuccessfulChecksUntilTheyExpire() throws Exception {
+        assertThat(check("us-east-1").isSuccessful(), is(true));
+        elapse(59);
+        assertThat(check("us-east-1").isSuccessful(), is(true));
+        assertThat(dryRuns.get(), is(1));
+
+        elapse(1);
+        check("us-east-1");
+        assertThat(dryRuns.get(), is(2));
+    }
+
+    @Test
+    public void shouldKeepChecksOfEachRegionAndCredentialsApart() throws Exception {
+        check("us-east-1");
+        check("eu-west-1");
+        connectionChecks.get("us-east-1", "role", dryRun);
+
+        assertThat(dryRuns.get(), is(3));
+    }
+
+    @Test
+    public void shouldBackOffFromRegionsThatKeepFailing() throws Exception {
+        failing.set(true);
+        assertThat(check("us-east-1").getMessage(), is("UnauthorizedOperation"));
+        elapse(4);
+        check("us-east-1");
+        assertThat(dryRuns.get(), is(1));
+
+        elapse(1);
+        check("us-east-1");
+        assertThat(dryRuns.get(), is(2));
+        elapse(9);
+        check("us-east-1");
+        assertThat(dryRuns.get(), is(2));
+
+        elapse(1);
+        failing.set(false);
+        assertThat(check("us-east-1").isSuccessful(), is(true));
+        assertThat(dryRuns.get(), is(3));
+    }
+
+    @Test
+    public void shouldCapTheBackoff() throws Exception {
+        failing.set(true);
+        for (int i = 0; i < 10; i++) {
+            check("us-east-1");
+            elapse(20);
+        }
+
+        assertThat(dryRuns.get(), is(10));
+    }
+
+    @Test
+    public void shouldReportChecksThatThrowAsFailed() throws Exception {
+        ConnectionCheck connectionCheck = connectionChecks.get("us-east-1", "default", new Callable<ConnectionCheck>() {
+            @Override
+            public ConnectionCheck call() throws Exception {
+                throw new IllegalStateException("connect timed out");
+            }
+        });
+
+        assertThat(connectionCheck.isSuccessful(), is(false));
+        assertThat(connectionCheck.getMessage(), is("Unable to connect to us-east-1: connect timed out"));
+    }
+
+    private ConnectionCheck check(String region) {
+        return connectionChecks.get(region, "default", dryRun);
+    }
+
+    private void elapse(long seconds) {
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
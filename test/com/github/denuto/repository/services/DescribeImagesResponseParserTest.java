@@ -0,0 +1,127 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.model.Image;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class DescribeImagesResponseParserTest {
+
+    private static final String RESPONSE = "" +
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<DescribeImagesResponse xmlns=\"http://ec2.amazonaws.com/doc/2016-11-15/\">" +
+            "   <requestId>59dbff89-35bd-4eac-99ed-be587EXAMPLE</requestId>" +
+            "   <imagesSet>" +
+            "       <item>" +
+            "           <imageId>ami-1</imageId>" +
+            "           <imageLocation>123456789012/base-ubuntu</imageLocation>" +
+            "           <imageState>available</imageState>" +
+            "           <imageOwnerId>123456789012</imageOwnerId>" +
+            "           <creationDate>2015-06-01T10:00:00.000Z</creationDate>" +
+            "           <architecture>x86_64</architecture>" +
+            "           <name>base-ubuntu</name>" +
+            "           <description>Built from &quot;master&quot;</description>" +
+            "           <blockDeviceMapping><item><deviceName>/dev/sda1</deviceName><ebs><snapshotId>snap-1</snapshotId></ebs></item></blockDeviceMapping>" +
+            "           <tagSet><item><key>Purpose</key><value>ci</value></item></tagSet>" +
+            "       </item>" +
+            "       <item>" +
+            "           <imageId>ami-2</imageId>" +
+            "           <imageState>available</imageState>" +
+            "       </item>" +
+            "   </imagesSet>" +
+            "   <nextToken>token-2</nextToken>" +
+            "</DescribeImagesResponse>";
+
+    @Test
+    public void shouldParseTheFieldsThePluginUsesAndTheNextToken() throws Exception {
+        final List<Image> images = new ArrayList<>();
+
+        String nextToken = DescribeImagesResponseParser.parse(stream(RESPONSE), new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                images.add(image);
+                return true;
+            }
+        });
+
+        assertThat(nextToken, is("token-2"));
+        assertThat(images.size(), is(2));
+        assertThat(images.get(0).getImageId(), is("ami-1"));
+        assertThat(images.get(0).getName(), is("base-ubuntu"));
+        assertThat(images.get(0).getDescription(), is("Built from \"master\""));
+        assertThat(images.get(0).getCreationDate(), is("2015-06-01T10:00:00.000Z"));
+        assertThat(images.get(0).getOwnerId(), is("123456789012"));
+        assertThat(images.get(0).getState(), is("available"));
+        assertThat(images.get(0).getTags().get(0).getKey(), is("Purpose"));
+        assertThat(images.get(0).getTags().get(0).getValue(), is("ci"));
+        assertThat(images.get(0).getBlockDeviceMappings().isEmpty(), is(true));
+        assertThat(images.get(1).getImageId(), is("ami-2"));
+    }
+
+    @Test
+    public void shouldSkipImagesTheVisitorDoesNotWantOnceTheirCreationDateIsRead() throws Exception {
+        final List<Long> offered = new ArrayList<>();
+        final List<Image> images = new ArrayList<>();
+
+        String nextToken = DescribeImagesResponseParser.parse(stream(RESPONSE), new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                images.add(image);
+                return true;
+            }
+
+            @Override
+            public boolean wants(long creationMillis) {
+                offered.add(creationMillis);
+                return false;
+            }
+        });
+
+        assertThat(nextToken, is("token-2"));
+        assertThat(offered, is(Collections.singletonList(new DateTime("2015-06-01T10:00:00.000Z").getMillis())));
+        assertThat(images.size(), is(1));
+        assertThat(images.get(0).getImageId(), is("ami-2"));
+    }
+
+    @Test
+    public void shouldStopParsingWhenTheVisitorSaysSo() throws Exception {
+        final List<Image> images = new ArrayList<>();
+
+        String nextToken = DescribeImagesResponseParser.parse(stream(RESPONSE), new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                images.add(image);
+                return false;
+            }
+        });
+
+        assertThat(nextToken, is(nullValue()));
+        assertThat(images.size(), is(1));
+    }
+
+    @Test
+    public void shouldTurnErrorResponsesIntoServiceExceptions() throws Exception {
+        AmazonServiceException exception = DescribeImagesResponseParser.parseError(stream("" +
+                "<Response><Errors><Error><Code>RequestLimitExceeded</Code><Message>Request limit exceeded.</Message></Error></Errors>" +
+                "<RequestID>req-1</RequestID></Response>"), 503);
+
+        assertThat(exception.getErrorCode(), is("RequestLimitExceeded"));
+        assertThat(exception.getErrorMessage(), is("Request limit exceeded."));
+        assertThat(exception.getRequestId(), is("req-1"));
+        assertThat(exception.getStatusCode(), is(503));
+    }
+
+    private InputStream stream(String xml) throws Exception {
+        return new ByteArrayInputStream(xml.getBytes("UTF-8"));
+    }
+}
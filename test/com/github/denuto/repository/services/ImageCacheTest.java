@@ -0,0 +1,115 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageCacheTest {
+
+    private static final ImageQuery WEB = new ImageQuery("us-east-1").withFilter("name", "web-*");
+    private static final ImageQuery DB = new ImageQuery("us-east-1").withFilter("name", "db-*");
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void shouldReuseImagesUntilTheyExpire() throws Exception {
+        ImageCache imageCache = imageCache(30, 100);
+
+        imageCache.get(WEB, loader(2));
+        elapse(29);
+        imageCache.get(WEB, loader(2));
+        assertThat(loads.get(), is(1));
+
+        elapse(1);
+        imageCache.get(WEB, loader(2));
+        assertThat(loads.get(), is(2));
+    }
+
+    @Test
+    public void shouldNotCacheAnythingWithATtlOfZero() throws Exception {
+        ImageCache imageCache = imageCache(0, 100);
+
+        imageCache.get(WEB, loader(2));
+        imageCache.get(WEB, loader(2));
+
+        assertThat(loads.get(), is(2));
+        assertThat(imageCache.getIfPresent(WEB), is(nullValue()));
+    }
+
+    @Test
+    public void shouldEvictImagesBeyondTheMaximumNumberOfImages() throws Exception {
+        ImageCache imageCache = imageCache(30, 5);
+
+        imageCache.get(WEB, loader(2));
+        imageCache.get(DB, loader(2));
+
+        assertThat(imageCache.size(), is(1L));
+        assertThat(imageCache.getIfPresent(WEB), is(nullValue()));
+        assertThat(imageCache.getIfPresent(DB).size(), is(2));
+    }
+
+    @Test
+    public void shouldCacheAResultUsingTheWholeMaximumButNotALargerOne() throws Exception {
+        ImageCache imageCache = imageCache(30, 5);
+
+        imageCache.get(WEB, loader(4));
+        assertThat(imageCache.getIfPresent(WEB).size(), is(4));
+
+        imageCache.get(DB, loader(5));
+        assertThat(imageCache.getIfPresent(DB), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCountHitsAndMisses() throws Exception {
+        ImageCache imageCache = imageCache(30, 100);
+
+        imageCache.get(WEB, loader(1));
+        imageCache.get(WEB, loader(1));
+        imageCache.get(WEB, loader(1));
+        imageCache.get(DB, loader(1));
+
+        assertThat(imageCache.stats().hitCount(), is(2L));
+        assertThat(imageCache.stats().missCount(), is(2L));
+    }
+
+    private ImageCache imageCache(long ttlSeconds, long maximumImages) {
+        return new ImageCache(ttlSeconds, maximumImages, new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+    }
+
+    private Callable<ImageTimeline> loader(final int size) {
+        return new Callable<ImageTimeline>() {
+            @Override
+            public ImageTimeline call() throws Exception {
+                loads.incrementAndGet();
+                List<Image> images = new ArrayList<>();
+                for (int i = 0; i < size; i++) {
+                    images.add(new Image().withImageId("ami-" + i).withCreationDate("2016-01-0" + (i + 1) + "T00:00:00.000Z"));
+                }
+                return ImageTimeline.of(images);
+            }
+        };
+    }
+
+    private void elapse(long seconds) {
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageRefreshSchedulerTest {
+
+    private static final ImageQuery QUERY = new ImageQuery("us-east-1").withFilter("name", "web-*");
+    private static final long INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final ImageRefreshScheduler scheduler = new ImageRefreshScheduler(INTERVAL_MILLIS, IDLE_MILLIS, 1, new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+    private final Callable<ImageTimeline> loader = new Callable<ImageTimeline>() {
+        @Override
+        public ImageTimeline call() throws Exception {
+            return images("ami-" + (1 + loads.incrementAndGet()));
+        }
+    };
+
+    @Before
+    public void setup() {
+        scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void shouldHandOutTheImagesATrackedQueryWasAnsweredWith() throws Exception {
+        ImageTimeline images = images("ami-1");
+
+        scheduler.track(QUERY, loader, images);
+
+        assertThat(scheduler.snapshot(QUERY), is(sameInstance(images)));
+        assertThat(scheduler.snapshot(new ImageQuery("us-west-2")), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotTrackQueriesWhileStopped() throws Exception {
+        scheduler.stop();
+
+        scheduler.track(QUERY, loader, images("ami-1"));
+
+        assertThat(scheduler.snapshot(QUERY), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRefreshATrackedQueryOnceItsImagesAreAnIntervalOld() throws Exception {
+        scheduler.track(QUERY, loader, images("ami-1"));
+
+        elapse(INTERVAL_MILLIS - 1);
+        scheduler.refreshDueQueries();
+        assertThat(loads.get(), is(0));
+
+        elapse(1);
+        scheduler.refreshDueQueries();
+        assertThat(awaitLatestImageId(), is("ami-2"));
+        assertThat(loads.get(), is(1));
+    }
+
+    @Test
+    public void shouldRefreshImagesFetchedBeforeTheyWereTrackedOnTheNextTick() throws Exception {
+        scheduler.track(QUERY, loader, images("ami-1").fetchedAt(System.currentTimeMillis() - INTERVAL_MILLIS));
+
+        scheduler.refreshDueQueries();
+
+        assertThat(awaitLatestImageId(), is("ami-2"));
+    }
+
+    @Test
+    public void shouldNotHandOutImagesFetchedMoreThanThreeIntervalsAgo() throws Exception {
+        scheduler.track(QUERY, loader, images("ami-1").fetchedAt(System.currentTimeMillis() - 3 * INTERVAL_MILLIS - 1000));
+
+        assertThat(scheduler.snapshot(QUERY), is(nullValue()));
+    }
+
+    @Test
+    public void shouldStopHandingOutASnapshotThatCouldNotBeRefreshedForThreeIntervals() throws Exception {
+        scheduler.track(QUERY, new Callable<ImageTimeline>() {
+            @Override
+            public ImageTimeline call() throws Exception {
+                loads.incrementAndGet();
+                throw new IllegalStateException("region unavailable");
+            }
+        }, images("ami-1"));
+
+        for (int interval = 1; interval <= 3; interval++) {
+            elapse(INTERVAL_MILLIS);
+            scheduler.refreshDueQueries();
+            awaitLoads(interval);
+            assertThat(scheduler.snapshot(QUERY).latest().getImage().getImageId(), is("ami-1"));
+        }
+        elapse(1);
+
+        assertThat(scheduler.snapshot(QUERY), is(nullValue()));
+    }
+
+    @Test
+    public void shouldStopRefreshingQueriesThatWereNotAskedAboutForTheIdleTimeout() throws Exception {
+        scheduler.track(QUERY, loader, images("ami-1"));
+
+        elapse(IDLE_MILLIS + 1);
+        scheduler.refreshDueQueries();
+
+        assertThat(scheduler.peek(QUERY), is(nullValue()));
+        assertThat(loads.get(), is(0));
+    }
+
+    @Test
+    public void shouldKeepRefreshingQueriesThatAreAskedAbout() throws Exception {
+        scheduler.track(QUERY, loader, images("ami-1"));
+
+        elapse(IDLE_MILLIS - 1);
+        scheduler.snapshot(QUERY);
+        elapse(2);
+        scheduler.refreshDueQueries();
+
+        assertThat(awaitLatestImageId(), is("ami-2"));
+    }
+
+    private String awaitLatestImageId() throws InterruptedException {
+        awaitLoads(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        ImageTimeline images = scheduler.peek(QUERY);
+        while (images.latest().getImage().getImageId().equals("ami-1") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            images = scheduler.peek(QUERY);
+        }
+        return images.latest().getImage().getImageId();
+    }
+
+    private void awaitLoads(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loads.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // let the refresh that loaded finish before the next one is due
+        Thread.sleep(20);
+    }
+
+    private void elapse(long millis) {
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static ImageTimeline images(String imageId) {
+        return ImageTimeline.of(Collections.singletonList(new Image().withImageId(imageId).withCreationDate("2016-01-01T00:00:00.000Z")));
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.CreationDateWindow;
+import com.github.denuto.repository.models.ImageProbe;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageTimeline;
+import com.google.common.base.Ticker;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final ImageQuery QUERY = new ImageQuery("us-east-1").withFilter("name", "web-*");
+    private static final List<String> NO_CATALOGUE = Collections.emptyList();
+
+    private final RecordingImageSource imageSource = new RecordingImageSource(
+            new Image().withImageId("ami-1").withName("web-1").withCreationDate("2016-01-01T00:00:00.000Z"),
+            new Image().withImageId("ami-2").withName("web-2").withCreationDate("2016-01-02T00:00:00.000Z"),
+            new Image().withImageId("ami-3").withName("web-3").withCreationDate("2016-01-03T00:00:00.000Z"));
+    private final ImageService imageService = new ImageService(imageSource, 100,
+            new ImageCache(30, 1000), new ImageCache(30, 1000), new ImageRefreshScheduler(0, 0, 1, Ticker.systemTicker()), new ImageSnapshotStore(null, 0));
+
+    @Test
+    public void shouldProbeFromTheSmallestPageUpToTheFirstMatchingImage() throws Exception {
+        ImageProbe probe = imageService.probeImages(QUERY, NO_CATALOGUE);
+
+        assertThat(imageSource.firstPageSizes, is(Collections.singletonList(5)));
+        assertThat(imageSource.visitedImages, is(1));
+        assertThat(probe.isEmpty(), is(false));
+        assertThat(probe.isExact(), is(false));
+        assertThat(probe.describe(), is("at least 1 matching image, such as web-1 (ami-1)"));
+    }
+
+    @Test
+    public void shouldAnswerProbesFromCachedImages() throws Exception {
+        imageService.findImages(QUERY);
+
+        ImageProbe probe = imageService.probeImages(QUERY, NO_CATALOGUE);
+
+        assertThat(imageSource.firstPageSizes.size(), is(1));
+        assertThat(probe.isExact(), is(true));
+        assertThat(probe.describe(), is("3 matching images, such as web-3 (ami-3)"));
+    }
+
+    @Test
+    public void shouldAnswerProbesFromACachedCatalogue() throws Exception {
+        List<String> catalogueOwners = Collections.singletonList("123456789012");
+        imageService.findImages(new ImageQuery("us-east-1").withFilter("name", "other-*"), catalogueOwners);
+
+        ImageProbe probe = imageService.probeImages(QUERY, catalogueOwners);
+
+        assertThat(imageSource.firstPageSizes.size(), is(1));
+        assertThat(probe.getMatchingImages(), is(3));
+    }
+
+    @Test
+    public void shouldReportNoMatchingImages() throws Exception {
+        ImageService emptyService = new ImageService(new RecordingImageSource(), 100,
+                new ImageCache(30, 1000), new ImageCache(30, 1000), new ImageRefreshScheduler(0, 0, 1, Ticker.systemTicker()), new ImageSnapshotStore(null, 0));
+
+        ImageProbe probe = emptyService.probeImages(QUERY, NO_CATALOGUE);
+
+        assertThat(probe.isEmpty(), is(true));
+        assertThat(probe.describe(), is("no matching images"));
+    }
+
+    @Test
+    public void shouldScanTheWholeQueryForTheFirstImageCreatedBeforeTheRetainedOnes() throws Exception {
+        ImageService boundedService = new ImageService(imageSource, 2,
+                new ImageCache(30, 1000), new ImageCache(30, 1000), new ImageRefreshScheduler(0, 0, 1, Ticker.systemTicker()), new ImageSnapshotStore(null, 0));
+        long since = new DateTime("2015-12-31T00:00:00.000Z").getMillis();
+
+        ImageTimeline timeline = boundedService.findImages(QUERY);
+
+        assertThat(timeline.size(), is(2));
+        assertThat(timeline.isCompleteAfter(since), is(false));
+        assertThat(timeline.firstCreatedAfter(since).getImage().getImageId(), is("ami-2"));
+        assertThat(boundedService.fetchFirstCreatedAfter(QUERY, since).getImage().getImageId(), is("ami-1"));
+        assertThat(imageSource.visitedImages, is(6));
+    }
+
+    @Test
+    public void shouldNotSnapshotQueriesNarrowedToACreationDateWindow() throws Exception {
+        File file = temporaryFolder.newFile("images.bin");
+        file.delete();
+        ImageService snapshottingService = new ImageService(imageSource, 100,
+                new ImageCache(30, 1000), new ImageCache(30, 1000), new ImageRefreshScheduler(0, 0, 1, Ticker.systemTicker()), new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1)));
+        snapshottingService.startBackgroundRefresh();
+        snapshottingService.findImages(QUERY);
+        snapshottingService.findImages(QUERY.withFilter(CreationDateWindow.FILTER, "2016-01*"));
+        snapshottingService.stopBackgroundRefresh();
+
+        Map<ImageQuery, ImageTimeline> restored = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1)).open();
+
+        assertThat(restored.keySet(), is(Collections.singleton(QUERY)));
+    }
+
+    private static class RecordingImageSource implements ImageSource {
+        private final Image[] images;
+        private final List<Integer> firstPageSizes = new ArrayList<>();
+        private int visitedImages;
+
+        private RecordingImageSource(Image... images) {
+            this.images = images;
+        }
+
+        @Override
+        public void scan(ImageQuery imageQuery, ImageVisitor visitor) {
+            scan(imageQuery, Integer.MAX_VALUE, visitor);
+        }
+
+        @Override
+        public void scan(ImageQuery imageQuery, int firstPageSize, ImageVisitor visitor) {
+            firstPageSizes.add(firstPageSize);
+            for (Image image : images) {
+                visitedImages++;
+                if (!visitor.visit(image)) {
+                    return;
+                }
+            }
+        }
+    }
+}
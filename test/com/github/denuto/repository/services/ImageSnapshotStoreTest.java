@@ -0,0 +1,128 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageQuery;
+import com.github.denuto.repository.models.ImageTimeline;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ImageSnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ImageQuery imageQuery = new ImageQuery("us-east-1").withOwners(Arrays.asList("self")).withFilter("name", "base-*");
+
+    @Test
+    public void shouldRestoreTheNewestSnapshotOfEachQuery() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "snapshots/images.bin");
+        ImageSnapshotStore store = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1));
+        store.open();
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        store.save(imageQuery, timeline("ami-2", "2015-11-12T18:04:29.000Z"));
+        store.close();
+
+        Map<ImageQuery, ImageTimeline> restored = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1)).open();
+
+        assertThat(restored.size(), is(1));
+        assertThat(restored.get(imageQuery).latest().getImage().getImageId(), is("ami-2"));
+        assertThat(restored.get(imageQuery).latest().getImage().getTags().get(0).getValue(), is("ci"));
+    }
+
+    @Test
+    public void shouldDropATornLastEntry() throws Exception {
+        File file = temporaryFolder.newFile("images.bin");
+        file.delete();
+        ImageSnapshotStore store = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1));
+        store.open();
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        store.close();
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        }
+
+        Map<ImageQuery, ImageTimeline> restored = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1)).open();
+
+        assertThat(restored.get(imageQuery).latest().getImage().getImageId(), is("ami-1"));
+    }
+
+    @Test
+    public void shouldNotRestoreSnapshotsOlderThanMaxAge() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "images.bin");
+        ImageSnapshotStore store = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1));
+        store.open();
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        store.close();
+
+        assertThat(new ImageSnapshotStore(file, -1).open().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRestoreUnchangedSnapshotsConfirmedSinceTheyWereWritten() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "images.bin");
+        ImageSnapshotStore store = new ImageSnapshotStore(file, 400);
+        store.open();
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        Thread.sleep(500);
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        store.close();
+
+        Map<ImageQuery, ImageTimeline> restored = new ImageSnapshotStore(file, 400).open();
+
+        assertThat(restored.get(imageQuery).latest().getImage().getImageId(), is("ami-1"));
+        assertThat(restored.get(imageQuery).latest().getImage().getTags().get(0).getValue(), is("ci"));
+    }
+
+    @Test
+    public void shouldWriteImagesAgainWhenOnlyTheirTagsChanged() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "images.bin");
+        ImageSnapshotStore store = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1));
+        store.open();
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z", "release"));
+        store.close();
+
+        Map<ImageQuery, ImageTimeline> restored = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1)).open();
+
+        assertThat(restored.get(imageQuery).latest().getImage().getTags().get(0).getValue(), is("release"));
+    }
+
+    @Test
+    public void shouldDropSnapshotsOlderThanMaxAgeWhenCompacting() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "images.bin");
+        ImageSnapshotStore store = new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1));
+        store.open();
+        store.save(imageQuery, timeline("ami-1", "2015-11-12T18:04:28.000Z"));
+        store.close();
+        long written = file.length();
+
+        ImageSnapshotStore expiring = new ImageSnapshotStore(file, -1);
+        expiring.open();
+        expiring.close();
+
+        assertThat(file.length() < written, is(true));
+        assertThat(new ImageSnapshotStore(file, TimeUnit.HOURS.toMillis(1)).open().isEmpty(), is(true));
+    }
+
+    private ImageTimeline timeline(String imageId, String creationDate) {
+        return timeline(imageId, creationDate, "ci");
+    }
+
+    private ImageTimeline timeline(String imageId, String creationDate, String purpose) {
+        return ImageTimeline.of(Arrays.asList(new Image()
+                .withImageId(imageId)
+                .withCreationDate(creationDate)
+                .withTags(new Tag("Purpose", purpose))));
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Tag;
+import com.github.denuto.repository.models.ImageQuery;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LocalImageFilterTest {
+
+    private final Image image = new Image()
+            .withImageId("ami-1")
+            .withName("base-ubuntu-14.04")
+            .withArchitecture("x86_64")
+            .withState("available")
+            .withTags(new Tag("Purpose", "ci"), new Tag("Team", "platform"));
+
+    @Test
+    public void shouldMatchNameSpecWithWildcards() throws Exception {
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("name", "base-*")), is(true));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("name", "base-ubuntu-14.0?")), is(true));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("name", "*ubuntu*")), is(true));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("name", "base")), is(false));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("name", "Base-*")), is(false));
+    }
+
+    @Test
+    public void shouldTreatEscapedWildcardsAsLiterals() throws Exception {
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("name", "base-\\*")), is(false));
+        assertThat(new LocalImageFilter.Pattern("a\\*b").matches("a*b"), is(true));
+    }
+
+    @Test
+    public void shouldOrValuesOfOneFilterAndAndFilters() throws Exception {
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("architecture", "i386", "x86_64")), is(true));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("architecture", "x86_64").withFilter("state", "pending")), is(false));
+    }
+
+    @Test
+    public void shouldMatchTagKeyAndTagValueIndependently() throws Exception {
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("tag-key", "Purpose").withFilter("tag-value", "platform")), is(true));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("tag:Purpose", "platform")), is(false));
+        assertThat(matches(new ImageQuery("us-east-1").withFilter("tag:Purpose", "c?")), is(true));
+    }
+
+    @Test
+    public void shouldNotSupportFiltersItCannotEvaluate() throws Exception {
+        assertThat(LocalImageFilter.supports(new ImageQuery("us-east-1").withFilter("block-device-mapping.volume-size", "8")), is(false));
+    }
+
+    private boolean matches(ImageQuery imageQuery) {
+        return LocalImageFilter.compile(imageQuery).matches(image);
+    }
+}
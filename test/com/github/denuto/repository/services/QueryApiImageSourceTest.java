@@ -0,0 +1,152 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.retry.RetryPolicy;
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageQuery;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class QueryApiImageSourceTest {
+
+    private static final String PAGE = "" +
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+            "<DescribeImagesResponse xmlns=\"http://ec2.amazonaws.com/doc/2016-11-15/\">" +
+            "   <imagesSet>" +
+            "       <item><imageId>ami-1</imageId><imageState>available</imageState></item>" +
+            "       <item><imageId>ami-2</imageId><imageState>available</imageState></item>" +
+            "   </imagesSet>" +
+            "</DescribeImagesResponse>";
+
+    private final List<Response> responses = Collections.synchronizedList(new ArrayList<Response>());
+    private final List<String> visitedImageIds = new ArrayList<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                Response response = responses.remove(0);
+                byte[] body = response.body.getBytes("UTF-8");
+                exchange.sendResponseHeaders(response.statusCode, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldRequestAPageAgainAfterAServerError() throws Exception {
+        responses.addAll(Arrays.asList(error(503, "Unavailable"), error(500, "InternalError"), new Response(200, PAGE)));
+
+        imageSource(2).scan(new ImageQuery("us-east-1"), visitor());
+
+        assertThat(requests.get(), is(3));
+        assertThat(visitedImageIds, is(Arrays.asList("ami-1", "ami-2")));
+    }
+
+    @Test
+    public void shouldGiveUpOnceTheRetriesAreSpent() throws Exception {
+        responses.addAll(Arrays.asList(error(503, "Unavailable"), error(503, "Unavailable"), new Response(200, PAGE)));
+
+        try {
+            imageSource(1).scan(new ImageQuery("us-east-1"), visitor());
+            fail("expected the server error to be thrown");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getStatusCode(), is(503));
+        }
+        assertThat(requests.get(), is(2));
+    }
+
+    @Test
+    public void shouldNotRetryClientErrors() throws Exception {
+        responses.addAll(Arrays.asList(error(400, "InvalidParameterValue"), new Response(200, PAGE)));
+
+        try {
+            imageSource(2).scan(new ImageQuery("us-east-1"), visitor());
+            fail("expected the client error to be thrown");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("InvalidParameterValue"));
+        }
+        assertThat(requests.get(), is(1));
+    }
+
+    @Test
+    public void shouldLeaveThrottledPagesToTheRateLimiter() throws Exception {
+        responses.addAll(Arrays.asList(error(503, "RequestLimitExceeded"), new Response(200, PAGE)));
+
+        try {
+            imageSource(2).scan(new ImageQuery("us-east-1"), visitor());
+            fail("expected the throttling error to be thrown");
+        } catch (AmazonServiceException e) {
+            assertThat(e.getErrorCode(), is("RequestLimitExceeded"));
+        }
+        assertThat(requests.get(), is(1));
+    }
+
+    private QueryApiImageSource imageSource(int maxErrorRetries) {
+        RetryPolicy clientRetryPolicy = AmazonEC2ClientFactory.clientConfiguration(new Properties()).getRetryPolicy();
+        return new QueryApiImageSource(100, 1000, 1000, false,
+                new AWSStaticCredentialsProvider(new BasicAWSCredentials("key", "secret")),
+                new AdaptiveRateLimiter(1000, 1000, 0, 1),
+                new RetryPolicy(clientRetryPolicy.getRetryCondition(), RetryPolicy.BackoffStrategy.NO_DELAY, maxErrorRetries, false),
+                URI.create("http://localhost:" + server.getAddress().getPort() + "/"));
+    }
+
+    private ImageVisitor visitor() {
+        return new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                visitedImageIds.add(image.getImageId());
+                return true;
+            }
+        };
+    }
+
+    private static Response error(int statusCode, String code) {
+        return new Response(statusCode, "<Response><Errors><Error><Code>" + code + "</Code><Message>" + code + "</Message></Error></Errors>"
+                + "<RequestID>req-1</RequestID></Response>");
+    }
+
+    private static class Response {
+        private final int statusCode;
+        private final String body;
+
+        private Response(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+    }
+}
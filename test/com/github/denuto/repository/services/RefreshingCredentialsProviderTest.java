@@ -0,0 +1,157 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RefreshingCredentialsProviderTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicBoolean failing = new AtomicBoolean();
+    private final List<Runnable> refreshes = new ArrayList<>();
+    private final RefreshingCredentialsProvider credentialsProvider = new RefreshingCredentialsProvider(new AWSCredentialsProvider() {
+        @Override
+        public AWSCredentials getCredentials() {
+            if (failing.get()) {
+                throw new IllegalStateException("instance metadata unavailable");
+            }
+            return new BasicAWSCredentials("key-" + loads.incrementAndGet(), "secret");
+        }
+
+        @Override
+        public void refresh() {
+        }
+    }, TimeUnit.MINUTES.toMillis(5), new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            refreshes.add(command);
+        }
+    }, new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+
+    @Test
+    public void shouldReuseCredentialsUntilTheyAreDueForRefresh() throws Exception {
+        assertThat(accessKey(), is("key-1"));
+        elapse(4);
+        assertThat(accessKey(), is("key-1"));
+
+        assertThat(loads.get(), is(1));
+        assertThat(refreshes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRefreshInTheBackgroundOnceWhileHandingOutTheCurrentCredentials() throws Exception {
+        accessKey();
+        elapse(5);
+
+        assertThat(accessKey(), is("key-1"));
+        assertThat(accessKey(), is("key-1"));
+        assertThat(refreshes.size(), is(1));
+
+        refreshes.get(0).run();
+        assertThat(accessKey(), is("key-2"));
+    }
+
+    @Test
+    public void shouldKeepTheCurrentCredentialsWhenARefreshFails() throws Exception {
+        accessKey();
+        elapse(5);
+        accessKey();
+
+        failing.set(true);
+        refreshes.get(0).run();
+        failing.set(false);
+
+        assertThat(accessKey(), is("key-1"));
+        assertThat(refreshes.size(), is(2));
+    }
+
+    @Test
+    public void shouldLoadCredentialsThemselvesOnceTheyAreTwiceTheRefreshIntervalOld() throws Exception {
+        accessKey();
+        elapse(10);
+
+        assertThat(accessKey(), is("key-2"));
+        assertThat(refreshes.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldKeepRefreshingLaterWhenTheExecutorRejectsARefresh() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        RefreshingCredentialsProvider rejectingProvider = new RefreshingCredentialsProvider(new AWSStaticCredentialsProvider(
+                new BasicAWSCredentials("key", "secret")), TimeUnit.MINUTES.toMillis(5), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                attempts.incrementAndGet();
+                throw new RejectedExecutionException("shut down");
+            }
+        }, ticker());
+        rejectingProvider.getCredentials();
+        elapse(5);
+
+        assertThat(rejectingProvider.getCredentials().getAWSAccessKeyId(), is("key"));
+        assertThat(rejectingProvider.getCredentials().getAWSAccessKeyId(), is("key"));
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void shouldAskForSessionCredentialsOnEveryUse() throws Exception {
+        RefreshingCredentialsProvider sessionProvider = new RefreshingCredentialsProvider(new AWSCredentialsProvider() {
+            @Override
+            public AWSCredentials getCredentials() {
+                return new BasicSessionCredentials("key-" + loads.incrementAndGet(), "secret", "token");
+            }
+
+            @Override
+            public void refresh() {
+            }
+        }, TimeUnit.MINUTES.toMillis(5), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        }, ticker());
+
+        assertThat(sessionProvider.getCredentials().getAWSAccessKeyId(), is("key-1"));
+        assertThat(sessionProvider.getCredentials().getAWSAccessKeyId(), is("key-2"));
+        assertThat(refreshes.isEmpty(), is(true));
+    }
+
+    private Ticker ticker() {
+        return new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+    }
+
+    private String accessKey() {
+        return credentialsProvider.getCredentials().getAWSAccessKeyId();
+    }
+
+    private void elapse(long minutes) {
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(minutes));
+    }
+}
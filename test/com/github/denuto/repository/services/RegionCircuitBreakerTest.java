@@ -0,0 +1,134 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.AmazonServiceException;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Function;
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RegionCircuitBreakerTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final RegionCircuitBreaker circuitBreaker = new RegionCircuitBreaker(2, 60000, new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    });
+    private final AtomicBoolean failing = new AtomicBoolean(true);
+    private final AtomicInteger failureStatusCode = new AtomicInteger(503);
+    private final AtomicInteger polls = new AtomicInteger();
+    private final Function<ImageQuery, String> step = circuitBreaker.guard(new Function<ImageQuery, String>() {
+        @Override
+        public String apply(ImageQuery imageQuery) {
+            polls.incrementAndGet();
+            if (failing.get()) {
+                AmazonServiceException failure = new AmazonServiceException("region unavailable");
+                failure.setStatusCode(failureStatusCode.get());
+                throw failure;
+            }
+            return imageQuery.getRegion();
+        }
+    });
+
+    @Test
+    public void shouldStopPollingARegionAfterRepeatedFailures() throws Exception {
+        poll("us-east-1");
+        poll("us-east-1");
+        assertThat(circuitBreaker.isOpen("us-east-1", "default"), is(true));
+
+        try {
+            step.apply(new ImageQuery("us-east-1"));
+            fail("region should not have been polled");
+        } catch (RegionCircuitBreaker.RegionUnavailableException e) {
+            assertThat(polls.get(), is(2));
+        }
+        assertThat(circuitBreaker.isOpen("eu-west-1", "default"), is(false));
+    }
+
+    @Test
+    public void shouldProbeTheRegionOnceTheCircuitHasBeenOpenLongEnough() throws Exception {
+        poll("us-east-1");
+        poll("us-east-1");
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        failing.set(false);
+
+        assertThat(step.apply(new ImageQuery("us-east-1")), is("us-east-1"));
+        assertThat(circuitBreaker.isOpen("us-east-1", "default"), is(false));
+    }
+
+    @Test
+    public void shouldReopenTheCircuitWhenTheProbeFails() throws Exception {
+        poll("us-east-1");
+        poll("us-east-1");
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        poll("us-east-1");
+
+        assertThat(polls.get(), is(3));
+        assertThat(circuitBreaker.isOpen("us-east-1", "default"), is(true));
+        try {
+            step.apply(new ImageQuery("us-east-1"));
+            fail("region should not have been polled");
+        } catch (RegionCircuitBreaker.RegionUnavailableException e) {
+            assertThat(polls.get(), is(3));
+        }
+    }
+
+    @Test
+    public void shouldKeepPollingARegionThatRejectsAPackagesRequests() throws Exception {
+        failureStatusCode.set(400);
+        for (int i = 0; i < 5; i++) {
+            poll("us-east-1");
+        }
+
+        assertThat(polls.get(), is(5));
+        assertThat(circuitBreaker.isOpen("us-east-1", "default"), is(false));
+    }
+
+    @Test
+    public void shouldKeepTheCircuitsOfEachCredentialsIdentityApart() throws Exception {
+        String roleArn = "arn:aws:iam::123456789012:role/ami-reader";
+        poll(new ImageQuery("us-east-1").withRoleArn(roleArn));
+        poll(new ImageQuery("us-east-1").withRoleArn(roleArn));
+
+        assertThat(circuitBreaker.isOpen("us-east-1", roleArn), is(true));
+        assertThat(circuitBreaker.isOpen("us-east-1", "default"), is(false));
+    }
+
+    @Test
+    public void shouldOnlyCountFailuresOfTheRegionItself() throws Exception {
+        AmazonServiceException accessDenied = new AmazonServiceException("not authorized");
+        accessDenied.setStatusCode(403);
+        AmazonServiceException throttled = new AmazonServiceException("slow down");
+        throttled.setStatusCode(503);
+        throttled.setErrorCode("RequestLimitExceeded");
+
+        assertThat(RegionCircuitBreaker.isRegionFailure(accessDenied), is(false));
+        assertThat(RegionCircuitBreaker.isRegionFailure(new IllegalArgumentException("invalid filter")), is(false));
+        assertThat(RegionCircuitBreaker.isRegionFailure(throttled), is(true));
+        assertThat(RegionCircuitBreaker.isRegionFailure(new IllegalStateException("Unable to describe images", new SocketTimeoutException())), is(true));
+        assertThat(RegionCircuitBreaker.isRegionFailure(new BoundedImageSource.CallTimeoutException("Timed out")), is(true));
+    }
+
+    private void poll(String region) {
+        poll(new ImageQuery(region));
+    }
+
+    private void poll(ImageQuery imageQuery) {
+        try {
+            step.apply(imageQuery);
+        } catch (AmazonServiceException e) {
+            // the failures under test
+        }
+    }
+}
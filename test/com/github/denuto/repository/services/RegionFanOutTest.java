@@ -0,0 +1,67 @@
+package com.github.denuto.repository.services;
+
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Function;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RegionFanOutTest {
+
+    private final RegionFanOut regionFanOut = new RegionFanOut(4);
+
+    @After
+    public void tearDown() {
+        regionFanOut.shutdown();
+    }
+
+    @Test
+    public void shouldQueryRegionsConcurrentlyAndKeepQueryOrder() throws Exception {
+        final CountDownLatch allStarted = new CountDownLatch(3);
+
+        List<String> regions = regionFanOut.apply(queries("us-east-1", "eu-west-1", "ap-southeast-2"), new Function<ImageQuery, String>() {
+            @Override
+            public String apply(ImageQuery imageQuery) {
+                allStarted.countDown();
+                try {
+                    if (!allStarted.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("regions were queried one after another");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return imageQuery.getRegion();
+            }
+        });
+
+        assertThat(regions, is(Arrays.asList("us-east-1", "eu-west-1", "ap-southeast-2")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRethrowRegionFailures() throws Exception {
+        regionFanOut.apply(queries("us-east-1", "eu-west-1"), new Function<ImageQuery, String>() {
+            @Override
+            public String apply(ImageQuery imageQuery) {
+                if (imageQuery.getRegion().equals("eu-west-1")) {
+                    throw new IllegalArgumentException("region unavailable");
+                }
+                return imageQuery.getRegion();
+            }
+        });
+    }
+
+    private List<ImageQuery> queries(String... regions) {
+        ImageQuery[] imageQueries = new ImageQuery[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            imageQueries[i] = new ImageQuery(regions[i]);
+        }
+        return Arrays.asList(imageQueries);
+    }
+}
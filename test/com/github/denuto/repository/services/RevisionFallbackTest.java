@@ -0,0 +1,135 @@
+package com.github.denuto.repository.services;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RevisionFallbackTest {
+
+    private final RevisionFallback revisionFallback = new RevisionFallback(200, 2);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        revisionFallback.shutdown();
+    }
+
+    @Test
+    public void shouldAnswerWithTheLastKnownRevisionWhenTheDeadlinePasses() throws Exception {
+        revisionFallback.latestRevision("package", answer("{\"revision\":\"ami-1\"}"));
+
+        String revision = revisionFallback.latestRevision("package", slowAnswer("{\"revision\":\"ami-2\"}"));
+
+        assertThat(revision, is("{\"revision\":\"ami-1\"}"));
+        assertThat(revisionFallback.staleAnswers(), is(1L));
+    }
+
+    @Test
+    public void shouldAnswerWithTheLastKnownRevisionWhileARegionIsUnavailable() throws Exception {
+        revisionFallback.latestRevision("package", answer("{\"revision\":\"ami-1\"}"));
+
+        String revision = revisionFallback.latestRevision("package", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new RegionCircuitBreaker.RegionUnavailableException("us-east-1");
+            }
+        });
+
+        assertThat(revision, is("{\"revision\":\"ami-1\"}"));
+    }
+
+    @Test
+    public void shouldReportNoNewerRevisionWhenTheDeadlinePasses() throws Exception {
+        assertThat(revisionFallback.latestRevisionSince(slowAnswer("{\"revision\":\"ami-2\"}")), is(""));
+        assertThat(revisionFallback.staleAnswers(), is(1L));
+    }
+
+    @Test
+    public void shouldQueueRequestsWhileEveryThreadIsBusy() throws Exception {
+        final RevisionFallback busyFallback = new RevisionFallback(5000, 2);
+        final CountDownLatch started = new CountDownLatch(2);
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            for (int i = 0; i < 2; i++) {
+                callers.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return busyFallback.latestRevisionSince(new Callable<String>() {
+                            @Override
+                            public String call() throws Exception {
+                                started.countDown();
+                                release.await(5, TimeUnit.SECONDS);
+                                return "";
+                            }
+                        });
+                    }
+                });
+            }
+            started.await(5, TimeUnit.SECONDS);
+            callers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    release.countDown();
+                }
+            });
+
+            String revision = busyFallback.latestRevision("package", answer("{\"revision\":\"ami-3\"}"));
+
+            assertThat(revision, is("{\"revision\":\"ami-3\"}"));
+            assertThat(busyFallback.staleAnswers(), is(0L));
+        } finally {
+            callers.shutdownNow();
+            busyFallback.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailWhenThereIsNoKnownRevision() throws Exception {
+        revisionFallback.latestRevision("package", slowAnswer("{\"revision\":\"ami-2\"}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldPassOnOtherFailures() throws Exception {
+        revisionFallback.latestRevision("package", answer("{\"revision\":\"ami-1\"}"));
+
+        revisionFallback.latestRevision("package", new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalArgumentException("invalid filter");
+            }
+        });
+    }
+
+    private Callable<String> answer(final String revision) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return revision;
+            }
+        };
+    }
+
+    private Callable<String> slowAnswer(final String revision) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await(5, TimeUnit.SECONDS);
+                return revision;
+            }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.denuto.repository.services;
+
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.AmazonEC2;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.Image;
+import com.github.denuto.repository.models.ImageQuery;
+import com.google.common.base.Function;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SdkImageSourceTest {
+
+    private static final ImageQuery QUERY = new ImageQuery("us-east-1").withFilter("name", "web-*");
+
+    private final PagingAmazonEC2 amazonEC2 = new PagingAmazonEC2(
+            new DescribeImagesResult().withImages(image("ami-1")).withNextToken("page-2"),
+            new DescribeImagesResult().withImages(image("ami-2"), image("ami-3")).withNextToken("page-3"),
+            new DescribeImagesResult().withImages(image("ami-4")).withNextToken(""));
+    private final SdkImageSource imageSource = new SdkImageSource(4, new AdaptiveRateLimiter(1000, 1000, 0, 1), new Function<ImageQuery, AmazonEC2>() {
+        @Override
+        public AmazonEC2 apply(ImageQuery imageQuery) {
+            return amazonEC2;
+        }
+    });
+
+    @Test
+    public void shouldFollowTheNextTokenAcrossEveryPage() throws Exception {
+        final List<String> imageIds = new ArrayList<>();
+        imageSource.scan(QUERY, new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                imageIds.add(image.getImageId());
+                return true;
+            }
+        });
+
+        assertThat(imageIds, is(Arrays.asList("ami-1", "ami-2", "ami-3", "ami-4")));
+        assertThat(amazonEC2.requests.size(), is(3));
+        assertThat(amazonEC2.requests.get(0).getNextToken(), is(nullValue()));
+        assertThat(amazonEC2.requests.get(1).getNextToken(), is("page-2"));
+        assertThat(amazonEC2.requests.get(2).getNextToken(), is("page-3"));
+    }
+
+    @Test
+    public void shouldDoubleThePageSizeFromTheFirstPageUpToTheUsualOne() throws Exception {
+        imageSource.scan(QUERY, 1, new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                return true;
+            }
+        });
+
+        assertThat(amazonEC2.requests.size(), is(3));
+        assertThat(amazonEC2.requests.get(0).getMaxResults(), is(1));
+        assertThat(amazonEC2.requests.get(1).getMaxResults(), is(2));
+        assertThat(amazonEC2.requests.get(2).getMaxResults(), is(4));
+    }
+
+    @Test
+    public void shouldStopRequestingPagesOnceTheVisitorIsDone() throws Exception {
+        imageSource.scan(QUERY, new ImageVisitor() {
+            @Override
+            public boolean visit(Image image) {
+                return !image.getImageId().equals("ami-2");
+            }
+        });
+
+        assertThat(amazonEC2.requests.size(), is(2));
+    }
+
+    private static Image image(String imageId) {
+        return new Image().withImageId(imageId).withCreationDate("2016-01-01T00:00:00.000Z");
+    }
+
+    private static class PagingAmazonEC2 extends AbstractAmazonEC2 {
+        private final LinkedList<DescribeImagesResult> pages;
+        private final List<DescribeImagesRequest> requests = new ArrayList<>();
+
+        private PagingAmazonEC2(DescribeImagesResult... pages) {
+            this.pages = new LinkedList<>(Arrays.asList(pages));
+        }
+
+        @Override
+        public DescribeImagesResult describeImages(DescribeImagesRequest request) {
+            requests.add(request);
+            return pages.removeFirst();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.denuto.repository.services;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+    @Test
+    public void shouldRunOneCallForConcurrentCallersAndShareItsResult() throws Exception {
+        final Object result = new Object();
+        List<Future<Object>> answers = callConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                return result;
+            }
+        });
+
+        for (Future<Object> answer : answers) {
+            assertThat(answer.get(5, TimeUnit.SECONDS), is(sameInstance(result)));
+        }
+        assertThat(calls.get(), is(1));
+        assertThat(singleFlight.coalescedCalls(), is((long) CALLERS - 1));
+    }
+
+    @Test
+    public void shouldShareTheExceptionOfTheCallWithEveryCaller() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("region unavailable");
+        List<Future<Object>> answers = callConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                release.await();
+                throw failure;
+            }
+        });
+
+        for (Future<Object> answer : answers) {
+            try {
+                answer.get(5, TimeUnit.SECONDS);
+                fail("the call should have failed");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), is(sameInstance((Throwable) failure)));
+            }
+        }
+        assertThat(calls.get(), is(1));
+    }
+
+    @Test
+    public void shouldStartAfreshOnceTheCallCompleted() throws Exception {
+        Callable<Object> call = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return calls.incrementAndGet();
+            }
+        };
+
+        assertThat(singleFlight.execute("us-east-1", call), is((Object) 1));
+        assertThat(singleFlight.execute("us-east-1", call), is((Object) 2));
+        assertThat(singleFlight.coalescedCalls(), is(0L));
+    }
+
+    @Test
+    public void shouldNotCoalesceCallsForDifferentKeys() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        List<Future<Object>> answers = new ArrayList<>();
+        for (final String key : new String[]{"us-east-1", "eu-west-1"}) {
+            answers.add(callers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return singleFlight.execute(key, new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            bothRunning.countDown();
+                            bothRunning.await();
+                            return key;
+                        }
+                    });
+                }
+            }));
+        }
+
+        assertThat(answers.get(0).get(5, TimeUnit.SECONDS), is((Object) "us-east-1"));
+        assertThat(answers.get(1).get(5, TimeUnit.SECONDS), is((Object) "eu-west-1"));
+        callers.shutdownNow();
+    }
+
+    private List<Future<Object>> callConcurrently(final Callable<Object> call) throws Exception {
+        List<Future<Object>> answers = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            answers.add(callers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return singleFlight.execute("us-east-1", call);
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.coalescedCalls() < CALLERS - 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+        callers.shutdown();
+        return answers;
+    }
+}